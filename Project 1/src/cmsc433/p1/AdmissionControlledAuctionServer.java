@@ -0,0 +1,487 @@
+package cmsc433.p1;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Passes calls on to another <code>AuctionServer</code> only as fast as it can
+ * take them, so that a rush of callers gets turned away quickly instead of
+ * queueing up on the server's locks and slowing everyone down.
+ *
+ * Two limits apply.  Each participant has a token bucket: it may make
+ * <code>burst</code> calls at once and <code>callsPerSecond</code> after
+ * that.  And at most <code>maxConcurrentCalls</code> calls may be inside the
+ * server at any time.  A call over either limit waits up to
+ * <code>maxWaitMs</code> for it, and is then turned away with a
+ * <code>ThrottledException</code> without anything having been done.  In
+ * <code>submitBids</code> only the bids whose bidder is over the rate are
+ * turned away, and they come back as not placed.
+ *
+ * Calls that only complete what the participant already started, namely
+ * registering, subscribing, collecting events and paying, do not count
+ * against the participant's rate, but they too wait at most
+ * <code>maxWaitMs</code> for room inside the server, so callers must be
+ * ready to make them again.  Reading the item snapshot and the statistics
+ * takes no lock, so they are not limited at all.
+ *
+ * Behind a <code>NetworkAuctionServer</code>, waiting holds up one of its
+ * worker threads and every later request on the same connection.
+ */
+public class AdmissionControlledAuctionServer extends AuctionServer
+{
+	private final AuctionServer target;
+
+	// Time to earn one token, and how far ahead of the clock a bucket may run before calls must wait.
+	private final long nanosPerCall;
+	private final long burstNanos;
+	private final long maxWaitNanos;
+
+	// For each participant, when its bucket will have earned back every token taken so far.
+	private final Map<Integer, AtomicLong> buckets = new ConcurrentHashMap<Integer, AtomicLong>();
+
+	private final Semaphore permits;
+
+	private final LongAdder admitted = new LongAdder();
+	private final LongAdder deferred = new LongAdder();
+	private final LongAdder rateLimited = new LongAdder();
+	private final LongAdder concurrencyLimited = new LongAdder();
+
+	/**
+	 * @param target The server to pass calls on to
+	 * @param callsPerSecond Calls each participant may make per second, or 0 for no limit
+	 * @param burst Calls a participant may make at once after calling less often for a while, at least 1
+	 * @param maxConcurrentCalls Calls that may be inside the server at once, or 0 for no limit
+	 * @param maxWaitMs Longest a call waits for each limit before it is turned away, or 0 to turn it away at once
+	 */
+	public AdmissionControlledAuctionServer(AuctionServer target, int callsPerSecond, int burst,
+			int maxConcurrentCalls, int maxWaitMs)
+	{
+		if (callsPerSecond < 0 || maxConcurrentCalls < 0 || maxWaitMs < 0)
+			throw new IllegalArgumentException("Limits cannot be negative");
+		if (burst < 1)
+			throw new IllegalArgumentException("burst must be positive");
+
+		this.target = target;
+		this.nanosPerCall = callsPerSecond == 0 ? 0 : TimeUnit.SECONDS.toNanos(1) / callsPerSecond;
+		this.burstNanos = nanosPerCall * burst;
+		this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMs);
+		this.permits = new Semaphore(maxConcurrentCalls == 0 ? Integer.MAX_VALUE : maxConcurrentCalls);
+	}
+
+	/**
+	 * @return Number of calls let through to the server
+	 */
+	public long admittedCalls()
+	{
+		return admitted.sum();
+	}
+
+	/**
+	 * @return Number of calls that had to wait for a limit, whether or not they were then let through
+	 */
+	public long deferredCalls()
+	{
+		return deferred.sum();
+	}
+
+	/**
+	 * @return Number of calls and batched bids turned away because their participant called too often
+	 */
+	public long rateLimitedCalls()
+	{
+		return rateLimited.sum();
+	}
+
+	/**
+	 * @return Number of calls turned away because too many calls were in progress
+	 */
+	public long concurrencyLimitedCalls()
+	{
+		return concurrencyLimited.sum();
+	}
+
+	/**
+	 * Takes a token from the participant's bucket, waiting for one if need be.
+	 * The bucket is kept as the time it will be full again, so taking a token
+	 * is a single compare-and-set.
+	 * @return False if the participant is over the rate, having waited as long as allowed
+	 */
+	private boolean takeToken(int participantID)
+	{
+		if (nanosPerCall == 0)
+			return true;
+
+		AtomicLong bucket = buckets.get(participantID);
+		if (bucket == null)
+			bucket = buckets.computeIfAbsent(participantID, id -> new AtomicLong(System.nanoTime()));
+
+		long now = System.nanoTime();
+		long wait;
+		while (true) {
+			long full = bucket.get();
+			long taken = (full - now < 0 ? now : full) + nanosPerCall;
+			wait = taken - now - burstNanos;
+			if (wait > maxWaitNanos)
+				return false;
+			if (bucket.compareAndSet(full, taken))
+				break;
+		}
+
+		if (wait > 0) {
+			deferred.increment();
+			try {
+				TimeUnit.NANOSECONDS.sleep(wait);
+			}
+			catch (InterruptedException e) {
+				//The token is already taken, so make the call anyway
+				Thread.currentThread().interrupt();
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Gives back a token taken for a call that was then turned away.
+	 */
+	private void refundToken(int participantID)
+	{
+		if (nanosPerCall != 0)
+			buckets.get(participantID).addAndGet(-nanosPerCall);
+	}
+
+	/**
+	 * Takes a token and a permit for a call that may be turned away.  The
+	 * caller releases the permit once the call is done.
+	 * @param participantID The calling participant.  Names that are not
+	 * registered resolve to -1, so calls made with them share one bucket.
+	 * @throws ThrottledException If either limit is exceeded
+	 */
+	private void admit(int participantID)
+	{
+		if (!takeToken(participantID)) {
+			rateLimited.increment();
+			throw new ThrottledException("Participant " + participantID + " is calling too often");
+		}
+		try {
+			enter();
+		}
+		catch (ThrottledException e) {
+			//Nothing was done, so the call does not count against the participant
+			refundToken(participantID);
+			throw e;
+		}
+	}
+
+	private boolean acquirePermit()
+	{
+		if (permits.tryAcquire())
+			return true;
+
+		deferred.increment();
+		if (maxWaitNanos == 0)
+			return false;
+		try {
+			return permits.tryAcquire(maxWaitNanos, TimeUnit.NANOSECONDS);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	/**
+	 * Takes a permit for a call that is not rate limited.  The caller releases
+	 * the permit once the call is done.
+	 * @throws ThrottledException If too many calls are in progress
+	 */
+	private void enter()
+	{
+		if (!acquirePermit()) {
+			concurrencyLimited.increment();
+			throw new ThrottledException("Server is busy");
+		}
+		admitted.increment();
+	}
+
+	@Override
+	public int registerParticipant(String name)
+	{
+		enter();
+		try {
+			return target.registerParticipant(name);
+		}
+		finally {
+			permits.release();
+		}
+	}
+
+	@Override
+	int participantID(String name)
+	{
+		return target.participantID(name);
+	}
+
+	@Override
+	public void subscribe(int participantID)
+	{
+		enter();
+		try {
+			target.subscribe(participantID);
+		}
+		finally {
+			permits.release();
+		}
+	}
+
+	@Override
+	public List<BidEvent> pollEvents(int participantID)
+	{
+		enter();
+		try {
+			return target.pollEvents(participantID);
+		}
+		finally {
+			permits.release();
+		}
+	}
+
+	@Override
+	public int submitItem(int sellerID, String itemName, int lowestBiddingPrice, int biddingDurationMs)
+	{
+		admit(sellerID);
+		try {
+			return target.submitItem(sellerID, itemName, lowestBiddingPrice, biddingDurationMs);
+		}
+		finally {
+			permits.release();
+		}
+	}
+
+	@Override
+	public List<Item> getItems()
+	{
+		enter();
+		try {
+			return target.getItems();
+		}
+		finally {
+			permits.release();
+		}
+	}
+
+	@Override
+	public ItemSnapshot getItemSnapshot()
+	{
+		return target.getItemSnapshot();
+	}
+
+	@Override
+	public ItemSnapshot getItemsIfChanged(long version)
+	{
+		return target.getItemsIfChanged(version);
+	}
+
+	@Override
+	public List<Item> itemsPricedAtMost(int maxPrice, int offset, int limit)
+	{
+		enter();
+		try {
+			return target.itemsPricedAtMost(maxPrice, offset, limit);
+		}
+		finally {
+			permits.release();
+		}
+	}
+
+	@Override
+	public List<Item> itemsListedBy(int sellerID, int offset, int limit)
+	{
+		enter();
+		try {
+			return target.itemsListedBy(sellerID, offset, limit);
+		}
+		finally {
+			permits.release();
+		}
+	}
+
+	@Override
+	public List<Item> itemsEndingWithin(int withinMs, int offset, int limit)
+	{
+		enter();
+		try {
+			return target.itemsEndingWithin(withinMs, offset, limit);
+		}
+		finally {
+			permits.release();
+		}
+	}
+
+	@Override
+	public boolean submitBid(int bidderID, int listingID, int biddingAmount)
+	{
+		admit(bidderID);
+		try {
+			return target.submitBid(bidderID, listingID, biddingAmount);
+		}
+		finally {
+			permits.release();
+		}
+	}
+
+	@Override
+	public boolean[] submitBids(BidRequest[] bids)
+	{
+		//Bids over their bidder's rate are left out of the batch.  Any waiting for tokens is done
+		//before taking a permit, so that it does not keep other calls out of the server
+		int[] admittedAt = new int[bids.length];
+		int count = 0;
+		for (int i = 0; i < bids.length; i++) {
+			if (takeToken(bids[i].bidderID()))
+				admittedAt[count++] = i;
+			else
+				rateLimited.increment();
+		}
+
+		try {
+			enter();
+		}
+		catch (ThrottledException e) {
+			for (int i = 0; i < count; i++)
+				refundToken(bids[admittedAt[i]].bidderID());
+			throw e;
+		}
+		try {
+			if (count == bids.length)
+				return target.submitBids(bids);
+
+			BidRequest[] placing = new BidRequest[count];
+			for (int i = 0; i < count; i++)
+				placing[i] = bids[admittedAt[i]];
+			boolean[] placed = target.submitBids(placing);
+			boolean[] results = new boolean[bids.length];
+			for (int i = 0; i < count; i++)
+				results[admittedAt[i]] = placed[i];
+			return results;
+		}
+		finally {
+			permits.release();
+		}
+	}
+
+	@Override
+	public boolean submitProxyBid(int bidderID, int listingID, int maxAmount)
+	{
+		admit(bidderID);
+		try {
+			return target.submitProxyBid(bidderID, listingID, maxAmount);
+		}
+		finally {
+			permits.release();
+		}
+	}
+
+	@Override
+	public int checkBidStatus(int bidderID, int listingID)
+	{
+		admit(bidderID);
+		try {
+			return target.checkBidStatus(bidderID, listingID);
+		}
+		finally {
+			permits.release();
+		}
+	}
+
+	@Override
+	public int itemPrice(int listingID)
+	{
+		enter();
+		try {
+			return target.itemPrice(listingID);
+		}
+		finally {
+			permits.release();
+		}
+	}
+
+	@Override
+	public int[] itemPrices(int[] listingIDs)
+	{
+		enter();
+		try {
+			return target.itemPrices(listingIDs);
+		}
+		finally {
+			permits.release();
+		}
+	}
+
+	@Override
+	public boolean itemUnbid(int listingID)
+	{
+		enter();
+		try {
+			return target.itemUnbid(listingID);
+		}
+		finally {
+			permits.release();
+		}
+	}
+
+	@Override
+	public String payForItem(int bidderID, int listingID, int amount) throws InsufficientFundsException
+	{
+		enter();
+		try {
+			return target.payForItem(bidderID, listingID, amount);
+		}
+		finally {
+			permits.release();
+		}
+	}
+
+	@Override
+	public AuctionStats stats()
+	{
+		return target.stats();
+	}
+
+	@Override
+	public List<LockUsage> lockUsage()
+	{
+		return target.lockUsage();
+	}
+
+	@Override
+	public List<MethodUsage> methodUsage()
+	{
+		return target.methodUsage();
+	}
+
+	@Override
+	public void shutdown()
+	{
+		target.shutdown();
+		super.shutdown();
+	}
+
+	@Override
+	public void openJournal(File file, long checkpointIntervalMs) throws IOException
+	{
+		target.openJournal(file, checkpointIntervalMs);
+	}
+
+	@Override
+	public void checkpoint() throws IOException
+	{
+		target.checkpoint();
+	}
+}
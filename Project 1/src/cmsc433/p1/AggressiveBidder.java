@@ -1,6 +1,5 @@
 package cmsc433.p1;
 
-import java.util.ArrayList;
 import java.util.Hashtable;
 import java.util.List;
 import java.util.Random;
@@ -64,85 +63,87 @@ public class AggressiveBidder implements Bidder
 	@Override
 	public void run()
 	{
-		List<Item> activeBids = new ArrayList<Item>();
-		Hashtable<Item, Integer> activeBidPrices = new Hashtable<Item, Integer>();
+		int id = Retry.registerAndSubscribe(server, this.name());
+		// Our current bids by listing ID, with the price each was placed over
+		Hashtable<Integer, Integer> activeBidPrices = new Hashtable<Integer, Integer>();
 		
-		for (int i = 0; (i < cycles && cash > 0) || activeBids.size() > 0; ++i)
+		for (int i = 0; (i < cycles && cash > 0) || activeBidPrices.size() > 0; ++i)
 		{
-			List<Item> items = server.getItems();
-			if (items.size() > this.mostItemsAvailable) { this.mostItemsAvailable = items.size(); }
+			int itemsAvailable = server.getItemSnapshot().size();
+			if (itemsAvailable > this.mostItemsAvailable) { this.mostItemsAvailable = itemsAvailable; }
 
-			while (items.size() > 0)
+			try
 			{
+				// Only consider items we could currently outbid
+				List<Item> items = server.itemsPricedAtMost(this.cash - 1, 0, Integer.MAX_VALUE);
 
-				int index = rand.nextInt(items.size());
+				while (items.size() > 0)
+				{
 
-				Item item = items.get(index);
-				items.remove(index);
+					int index = rand.nextInt(items.size());
 
-				int price = server.itemPrice(item.listingID());
-				if (price != -1 && price < this.cash)
-				{
-					// The server should ensure thread safety: if the price
-					// has already increased, then this bid should be invalid.
-					boolean success = server.submitBid(this.name(), item.listingID(), price + 1);
+					Item item = items.get(index);
+					items.remove(index);
 
-					if (success)
+					int price = server.itemPrice(item.listingID());
+					if (price != -1 && price < this.cash)
 					{
-						if (!activeBidPrices.containsKey(item))
+						// Let the server outbid others on our behalf, up to all
+						// the cash we currently have.
+						boolean success = server.submitProxyBid(id, item.listingID(), this.cash);
+
+						if (success)
 						{
-							activeBids.add(item);
+							activeBidPrices.put(item.listingID(), price);
 						}
-	
-						activeBidPrices.put(item, price + 1);
+						break;
 					}
-					break;
-				}
 
-				continue;
+					continue;
+				}
+			}
+			catch (ThrottledException e)
+			{
+				// The server is busy: sit this cycle's bid out
 			}
 
-			List<Item> newActiveBids = new ArrayList<Item>();
-			Hashtable<Item, Integer> newActiveBidPrices = new Hashtable<Item, Integer>();
-			for (Item bid : activeBids)
+			// Find out what happened to our bids since the last cycle
+			for (BidEvent event : Retry.pollEvents(server, id))
 			{
-				switch (server.checkBidStatus(this.name(), bid.listingID()))
+				switch (event.type())
 				{
-				case 1:
+				case WON:
 					// Success
-					int finalPrice = activeBidPrices.get(bid);
+					int finalPrice = event.amount();
 					int cashToPay = this.cash >= finalPrice ? finalPrice : this.cash;
 					
 					try {
-						String itemWon = server.payForItem(this.name(), bid.listingID(), cashToPay);
+						String itemWon = Retry.untilAdmitted(() -> server.payForItem(id, event.listingID(), cashToPay));
 						System.out.println(this.name() + " won " + itemWon + "!");
 					} catch (InsufficientFundsException e){
 						System.out.println(this.name() + " was unable to pay up and is retiring in disgrace.");
 						return;
 					}
 					this.cash -= cashToPay;
+					activeBidPrices.remove(event.listingID());
 
 					break;
 
-				case 2:
-					// Open
-					newActiveBids.add(bid);
-					newActiveBidPrices.put(bid, activeBidPrices.get(bid));
-					break;
-
-				case 3:
-					// Failed
+				case OUTBID:
+					// Failed, unless the event is for an earlier bid of ours: that one
+					// was beaten below the price our current bid was placed over
+					Integer bidPrice = activeBidPrices.get(event.listingID());
+					if (bidPrice != null && event.amount() >= bidPrice)
+					{
+						activeBidPrices.remove(event.listingID());
+					}
 					break;
 
 				default:
-					// Error
 					break;
 				}
 			}
 
-			activeBids = newActiveBids;
-			activeBidPrices = newActiveBidPrices;
-
 			try
 			{
 				Thread.sleep((long)rand.nextInt(this.maxSleepTimeMs));
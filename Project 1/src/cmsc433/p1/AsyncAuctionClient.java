@@ -0,0 +1,253 @@
+package cmsc433.p1;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Asynchronous access to an <code>AuctionServer</code>.  Each call returns at
+ * once with a <code>CompletableFuture</code>, and the server is called from a
+ * small fixed pool of threads, so many logical bidders can share a few threads
+ * instead of needing one each.
+ *
+ * Bids and price checks that arrive together are batched: they wait in a queue
+ * while a pool thread places the previous batch, then go to the server in a
+ * single <code>submitBids</code> or <code>itemPrices</code> call.  When the
+ * pool's queue is full the calling thread runs the work itself, which slows
+ * callers down to the rate the server keeps up with.
+ */
+public class AsyncAuctionClient
+{
+	/**
+	 * Largest number of bids or price checks passed to the server in one call.
+	 */
+	public static final int maxBatchSize = 256;
+
+	private final AuctionServer server;
+	private final ThreadPoolExecutor executor;
+
+	private final Batcher<BidRequest, Boolean> bids = new Batcher<BidRequest, Boolean>(this::placeBids);
+	private final Batcher<Integer, Integer> prices = new Batcher<Integer, Integer>(this::checkPrices);
+
+	/**
+	 * Creates a client of the given server.
+	 * @param server The server to call
+	 * @param threads Number of threads calling the server, at least 1
+	 * @param queueCapacity Number of calls that can wait for a thread before callers run them, at least 1
+	 */
+	public AsyncAuctionClient(AuctionServer server, int threads, int queueCapacity)
+	{
+		if (threads < 1)
+			throw new IllegalArgumentException("threads must be positive");
+		if (queueCapacity < 1)
+			throw new IllegalArgumentException("queueCapacity must be positive");
+
+		this.server = server;
+		AtomicInteger threadCount = new AtomicInteger();
+		this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(queueCapacity), runnable -> {
+					Thread thread = new Thread(runnable, "auction-async-" + threadCount.getAndIncrement());
+					thread.setDaemon(true);
+					return thread;
+				}, (runnable, pool) -> {
+					if (pool.isShutdown())
+						throw new RejectedExecutionException("Client has been shut down");
+					runnable.run();
+				});
+	}
+
+	/**
+	 * Submit an <code>Item</code>, as <code>AuctionServer.submitItem</code> does.
+	 * @return The listing ID, or -1 if the <code>Item</code> was not listed
+	 */
+	public CompletableFuture<Integer> submitItem(int sellerID, String itemName, int lowestBiddingPrice, int biddingDurationMs)
+	{
+		return call(() -> server.submitItem(sellerID, itemName, lowestBiddingPrice, biddingDurationMs));
+	}
+
+	/**
+	 * Submit a bid, as <code>AuctionServer.submitBid</code> does.  The bid is
+	 * placed together with the other bids waiting at the time.
+	 * @return True if successfully bid, false otherwise
+	 */
+	public CompletableFuture<Boolean> submitBid(int bidderID, int listingID, int biddingAmount)
+	{
+		return bids.add(new BidRequest(bidderID, listingID, biddingAmount));
+	}
+
+	/**
+	 * Check a bid, as <code>AuctionServer.checkBidStatus</code> does.
+	 * @return 1 if the bidder won, 2 if bidding is still open, 3 otherwise
+	 */
+	public CompletableFuture<Integer> checkBidStatus(int bidderID, int listingID)
+	{
+		return call(() -> server.checkBidStatus(bidderID, listingID));
+	}
+
+	/**
+	 * Check the current bid for an <code>Item</code>, as
+	 * <code>AuctionServer.itemPrice</code> does.  The price is read together
+	 * with the other price checks waiting at the time.
+	 * @return The highest bid so far or the opening price, or -1 if there is no such <code>Item</code>
+	 */
+	public CompletableFuture<Integer> itemPrice(int listingID)
+	{
+		return prices.add(listingID);
+	}
+
+	/**
+	 * Pay for an <code>Item</code>, as <code>AuctionServer.payForItem</code>
+	 * does.  An <code>InsufficientFundsException</code> completes the future
+	 * exceptionally.
+	 * @return The name of the <code>Item</code> won, or null if it was not won by the bidder
+	 */
+	public CompletableFuture<String> payForItem(int bidderID, int listingID, int amount)
+	{
+		return call(() -> server.payForItem(bidderID, listingID, amount));
+	}
+
+	/**
+	 * Stops the client's threads once the calls already made have been
+	 * completed.  The server is left running.  Calls made after this throw a
+	 * <code>RejectedExecutionException</code>.
+	 */
+	public void shutdown()
+	{
+		executor.shutdown();
+	}
+
+	private <T> CompletableFuture<T> call(Callable<T> request)
+	{
+		CompletableFuture<T> result = new CompletableFuture<T>();
+		executor.execute(() -> {
+			try {
+				result.complete(request.call());
+			}
+			catch (Throwable e) {
+				//Fail the caller's future even on an Error, which still ends the task
+				result.completeExceptionally(e);
+				if (e instanceof Error)
+					throw (Error) e;
+			}
+		});
+		return result;
+	}
+
+	private void placeBids(List<Pending<BidRequest, Boolean>> batch)
+	{
+		BidRequest[] requests = new BidRequest[batch.size()];
+		for (int i = 0; i < requests.length; i++)
+			requests[i] = batch.get(i).request;
+		boolean[] placed = server.submitBids(requests);
+		for (int i = 0; i < requests.length; i++)
+			batch.get(i).result.complete(placed[i]);
+	}
+
+	private void checkPrices(List<Pending<Integer, Integer>> batch)
+	{
+		int[] listingIDs = new int[batch.size()];
+		for (int i = 0; i < listingIDs.length; i++)
+			listingIDs[i] = batch.get(i).request;
+		int[] found = server.itemPrices(listingIDs);
+		for (int i = 0; i < listingIDs.length; i++)
+			batch.get(i).result.complete(found[i]);
+	}
+
+	private static final class Pending<T, R>
+	{
+		final T request;
+		final CompletableFuture<R> result = new CompletableFuture<R>();
+
+		Pending(T request)
+		{
+			this.request = request;
+		}
+	}
+
+	/**
+	 * Queues requests of one kind and hands them to the server in batches, with
+	 * at most one pool thread doing so at a time.
+	 */
+	private final class Batcher<T, R>
+	{
+		private final ConcurrentLinkedQueue<Pending<T, R>> pending = new ConcurrentLinkedQueue<Pending<T, R>>();
+
+		// Set while a task is draining the queue, so requests only schedule one.
+		private final AtomicBoolean draining = new AtomicBoolean();
+
+		private final Consumer<List<Pending<T, R>>> apply;
+
+		Batcher(Consumer<List<Pending<T, R>>> apply)
+		{
+			this.apply = apply;
+		}
+
+		CompletableFuture<R> add(T request)
+		{
+			Pending<T, R> waiting = new Pending<T, R>(request);
+			pending.add(waiting);
+			if (draining.compareAndSet(false, true)) {
+				try {
+					executor.execute(this::drain);
+				}
+				catch (RejectedExecutionException e) {
+					//Shut down: fail whatever was queued behind this request
+					Pending<T, R> stranded;
+					while ((stranded = pending.poll()) != null)
+						stranded.result.completeExceptionally(e);
+					draining.set(false);
+					throw e;
+				}
+			}
+			return waiting.result;
+		}
+
+		private void drain()
+		{
+			List<Pending<T, R>> batch = new ArrayList<Pending<T, R>>();
+			boolean handedOver = false;
+			try {
+				while (true) {
+					Pending<T, R> next;
+					while (batch.size() < maxBatchSize && (next = pending.poll()) != null)
+						batch.add(next);
+
+					if (batch.isEmpty()) {
+						//A request added after the last poll either sees draining cleared or is drained here
+						draining.set(false);
+						if (pending.isEmpty() || !draining.compareAndSet(false, true)) {
+							handedOver = true;
+							return;
+						}
+						continue;
+					}
+
+					try {
+						apply.accept(batch);
+					}
+					catch (RuntimeException | Error e) {
+						for (Pending<T, R> failed : batch)
+							failed.result.completeExceptionally(e);
+						if (e instanceof Error)
+							throw e;
+					}
+					batch.clear();
+				}
+			}
+			finally {
+				//An Error is on its way out: let the next request start a new drain rather than wait forever
+				if (!handedOver)
+					draining.set(false);
+			}
+		}
+	}
+}
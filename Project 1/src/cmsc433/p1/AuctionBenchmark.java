@@ -0,0 +1,439 @@
+package cmsc433.p1;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Benchmarks the main <code>AuctionServer</code> operations at several thread
+ * counts and writes the results to a tab separated file that can be diffed
+ * between releases.  For each operation and thread count a fresh server is set
+ * up, warmed up and then measured, reporting throughput, mean time per call per
+ * thread, the share of calls that succeeded, bytes allocated per call and the
+ * garbage collections during the measurement.  A rejected bid is much cheaper
+ * than a placed one, so a scenario that should only place bids fails if any
+ * is rejected.
+ *
+ * Options are given as <code>name=value</code> arguments: <code>results</code>
+ * (the results file), <code>warmupMs</code>, <code>measureMs</code>,
+ * <code>threads</code> (a comma separated list) and <code>server</code> (as
+ * for <code>LoadGenerator</code>).
+ */
+public class AuctionBenchmark
+{
+	private static final String[][] DEFAULTS = {
+		{ "results", "auction-benchmark.tsv" },
+		{ "warmupMs", "1000" },
+		{ "measureMs", "2000" },
+		{ "threads", "1,4,16,64" },
+		{ "server", "synchronized" },
+	};
+
+	// Long enough for listings to stay open for the whole benchmark.
+	private static final int OPEN_MS = 3600000;
+
+	/**
+	 * What became of one call.
+	 */
+	private enum Outcome
+	{
+		SUCCEEDED,
+		// The server turned the call down, such as a bid that does not outbid the current one.
+		REJECTED,
+		// The thread has no more work in this round; nothing was called.
+		DONE,
+	}
+
+	/**
+	 * One benchmarked operation.  <code>setUp</code> runs once on a fresh
+	 * server, <code>prepare</code> before each round of calls, and
+	 * <code>call</code> repeatedly in each thread until the round ends.
+	 */
+	private static abstract class Scenario
+	{
+		final String name;
+
+		// Share of calls that must succeed for the measurement to count.
+		final double minSuccessRate;
+
+		Scenario(String name)
+		{
+			this(name, 0);
+		}
+
+		Scenario(String name, double minSuccessRate)
+		{
+			this.name = name;
+			this.minSuccessRate = minSuccessRate;
+		}
+
+		void setUp(AuctionServer server, int threads)
+		{
+		}
+
+		void prepare(AuctionServer server, int threads) throws InterruptedException
+		{
+		}
+
+		abstract Outcome call(AuctionServer server, int thread, Random rand);
+	}
+
+	/**
+	 * Registers the given number of participants.
+	 */
+	private static int[] register(AuctionServer server, String prefix, int count)
+	{
+		int[] ids = new int[count];
+		for (int i = 0; i < count; i++)
+			ids[i] = server.registerParticipant(prefix + i);
+		return ids;
+	}
+
+	/**
+	 * Lists items up to the server's capacity, each seller listing as many as it may.
+	 */
+	private static int[] fill(AuctionServer server, int count, int biddingDurationMs)
+	{
+		int[] listingIDs = new int[count];
+		for (int i = 0; i < count; i++)
+			listingIDs[i] = server.submitItem("BenchSeller" + (i / AuctionServer.maxSellerItems), "Item" + i, 1, biddingDurationMs);
+		return listingIDs;
+	}
+
+	private static Scenario[] scenarios()
+	{
+		return new Scenario[] {
+			//Lists an already closed item, then settles it so the seller and the server have room for the next
+			new Scenario("submitItem") {
+				int[] sellers;
+
+				@Override
+				void setUp(AuctionServer server, int threads)
+				{
+					sellers = register(server, "Seller", threads);
+				}
+
+				@Override
+				Outcome call(AuctionServer server, int thread, Random rand)
+				{
+					int listingID = server.submitItem(sellers[thread], "Item", 1, -OPEN_MS);
+					server.checkBidStatus(sellers[thread], listingID);
+					return Outcome.SUCCEEDED;
+				}
+			},
+
+			//Each thread has its own listing and two bidders, who take turns outbidding each other on it
+			new Scenario("submitBid/uncontended", 1) {
+				int[] bidders, listings, amounts;
+
+				@Override
+				void setUp(AuctionServer server, int threads)
+				{
+					bidders = register(server, "Bidder", 2 * threads);
+					listings = fill(server, threads, OPEN_MS);
+					amounts = new int[threads];
+				}
+
+				@Override
+				Outcome call(AuctionServer server, int thread, Random rand)
+				{
+					int n = ++amounts[thread];
+					boolean placed = server.submitBid(bidders[2 * thread + (n & 1)], listings[thread], n + 1);
+					return placed ? Outcome.SUCCEEDED : Outcome.REJECTED;
+				}
+			},
+
+			//Every thread outbids the current price of the same listing, alternating between two bidders so
+			//that it is not turned down for already leading
+			new Scenario("submitBid/sameListing") {
+				int[] bidders, listings, next;
+
+				@Override
+				void setUp(AuctionServer server, int threads)
+				{
+					bidders = register(server, "Bidder", 2 * threads);
+					listings = fill(server, 1, OPEN_MS);
+					next = new int[threads];
+				}
+
+				@Override
+				Outcome call(AuctionServer server, int thread, Random rand)
+				{
+					int bidderID = bidders[2 * thread + (next[thread]++ & 1)];
+					boolean placed = server.submitBid(bidderID, listings[0], server.itemPrice(listings[0]) + 1);
+					return placed ? Outcome.SUCCEEDED : Outcome.REJECTED;
+				}
+			},
+
+			//Threads outbid the current price of random listings, cycling through bidders so none hits its bid limit
+			new Scenario("submitBid/manyListings") {
+				static final int BIDDERS_PER_THREAD = 16;
+				int[] bidders, listings, next;
+
+				@Override
+				void setUp(AuctionServer server, int threads)
+				{
+					bidders = register(server, "Bidder", threads * BIDDERS_PER_THREAD);
+					listings = fill(server, AuctionServer.serverCapacity, OPEN_MS);
+					next = new int[threads];
+				}
+
+				@Override
+				Outcome call(AuctionServer server, int thread, Random rand)
+				{
+					int listingID = listings[rand.nextInt(listings.length)];
+					int bidderID = bidders[thread * BIDDERS_PER_THREAD + next[thread]++ % BIDDERS_PER_THREAD];
+					boolean placed = server.submitBid(bidderID, listingID, server.itemPrice(listingID) + 1);
+					return placed ? Outcome.SUCCEEDED : Outcome.REJECTED;
+				}
+			},
+
+			new Scenario("getItems") {
+				@Override
+				void setUp(AuctionServer server, int threads)
+				{
+					fill(server, AuctionServer.serverCapacity, OPEN_MS);
+				}
+
+				@Override
+				Outcome call(AuctionServer server, int thread, Random rand)
+				{
+					server.getItems();
+					return Outcome.SUCCEEDED;
+				}
+			},
+
+			new Scenario("checkBidStatus") {
+				int[] bidders, listings;
+
+				@Override
+				void setUp(AuctionServer server, int threads)
+				{
+					bidders = register(server, "Bidder", AuctionServer.serverCapacity);
+					listings = fill(server, AuctionServer.serverCapacity, OPEN_MS);
+					for (int i = 0; i < listings.length; i++)
+						server.submitBid(bidders[i], listings[i], 2);
+				}
+
+				@Override
+				Outcome call(AuctionServer server, int thread, Random rand)
+				{
+					server.checkBidStatus(bidders[rand.nextInt(bidders.length)], listings[rand.nextInt(listings.length)]);
+					return Outcome.SUCCEEDED;
+				}
+			},
+
+			//Each round fills the server with items won by different bidders, which the threads then pay for.
+			//Rounds are only serverCapacity calls long, so with many threads their start-up skew shows.
+			new Scenario("payForItem") {
+				int[] bidders, listings;
+				int threads;
+				int[] next;
+
+				@Override
+				void setUp(AuctionServer server, int threads)
+				{
+					this.bidders = register(server, "Bidder", AuctionServer.serverCapacity);
+					this.threads = threads;
+				}
+
+				@Override
+				void prepare(AuctionServer server, int threads) throws InterruptedException
+				{
+					listings = fill(server, AuctionServer.serverCapacity, 20);
+					for (int i = 0; i < listings.length; i++)
+						server.submitBid(bidders[i], listings[i], 2);
+					next = new int[threads];
+					for (int i = 0; i < threads; i++)
+						next[i] = i;
+					Thread.sleep(40);
+				}
+
+				@Override
+				Outcome call(AuctionServer server, int thread, Random rand)
+				{
+					int i = next[thread];
+					if (i >= listings.length)
+						return Outcome.DONE;
+					next[thread] += threads;
+					try {
+						server.payForItem(bidders[i], listings[i], 2);
+					}
+					catch (InsufficientFundsException e) {
+						throw new IllegalStateException(e);
+					}
+					return Outcome.SUCCEEDED;
+				}
+			},
+		};
+	}
+
+	/**
+	 * Totals of one or more rounds.
+	 */
+	private static class Measurement
+	{
+		long calls;
+		long rejected;
+		long nanos;
+		long allocatedBytes;
+		long gcCount;
+		long gcMs;
+	}
+
+	public static void main(String[] args) throws InterruptedException, IOException
+	{
+		Map<String, String> options = new HashMap<String, String>();
+		for (String[] option : DEFAULTS)
+			options.put(option[0], option[1]);
+		for (String arg : args) {
+			int equals = arg.indexOf('=');
+			if (equals < 0 || !options.containsKey(arg.substring(0, equals)))
+				throw new IllegalArgumentException("Unknown option: " + arg);
+			options.put(arg.substring(0, equals), arg.substring(equals + 1));
+		}
+		long warmupMs = Long.parseLong(options.get("warmupMs"));
+		long measureMs = Long.parseLong(options.get("measureMs"));
+		String[] threadCounts = options.get("threads").split(",");
+
+		try (PrintWriter results = new PrintWriter(new FileWriter(options.get("results")))) {
+			results.println("# server=" + options.get("server") + " java=" + System.getProperty("java.version")
+					+ " processors=" + Runtime.getRuntime().availableProcessors());
+			results.println("scenario\tthreads\tops/s\tns/op\tsuccess%\tbytes/op\tgc.count\tgc.ms");
+			System.out.printf("%-24s %7s %12s %10s %9s %10s %9s %7s%n",
+					"scenario", "threads", "ops/s", "ns/op", "success%", "bytes/op", "gc.count", "gc.ms");
+
+			for (String count : threadCounts) {
+				int threads = Integer.parseInt(count.trim());
+				for (Scenario scenario : scenarios()) {
+					AuctionServer server = LoadGenerator.newServer(options.get("server"));
+					scenario.setUp(server, threads);
+					run(scenario, server, threads, warmupMs);
+					Measurement result = run(scenario, server, threads, measureMs);
+					server.shutdown();
+
+					double opsPerSecond = result.calls * 1e9 / result.nanos;
+					double nanosPerCall = (double) result.nanos * threads / result.calls;
+					double successRate = (double) (result.calls - result.rejected) / result.calls;
+					double bytesPerCall = (double) result.allocatedBytes / result.calls;
+					results.printf("%s\t%d\t%.0f\t%.1f\t%.1f\t%.1f\t%d\t%d%n", scenario.name, threads,
+							opsPerSecond, nanosPerCall, successRate * 100, bytesPerCall, result.gcCount, result.gcMs);
+					System.out.printf("%-24s %7d %12.0f %10.1f %9.1f %10.1f %9d %7d%n", scenario.name, threads,
+							opsPerSecond, nanosPerCall, successRate * 100, bytesPerCall, result.gcCount, result.gcMs);
+					if (successRate < scenario.minSuccessRate) {
+						throw new IllegalStateException(scenario.name + " succeeded in " + (result.calls - result.rejected)
+								+ " of " + result.calls + " calls, so it measured the wrong thing");
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Runs rounds of the scenario until they add up to the given time, or until
+	 * that much time has passed including the preparation of the rounds.
+	 */
+	private static Measurement run(Scenario scenario, AuctionServer server, int threads, long durationMs)
+			throws InterruptedException
+	{
+		Measurement total = new Measurement();
+		long end = System.nanoTime() + durationMs * 1000000L;
+		while (total.nanos < durationMs * 1000000L && (total.calls == 0 || System.nanoTime() < end)) {
+			scenario.prepare(server, threads);
+			long before = total.calls;
+			round(scenario, server, threads, durationMs * 1000000L - total.nanos, total);
+			if (total.calls == before)
+				throw new IllegalStateException(scenario.name + " made no calls");
+		}
+		return total;
+	}
+
+	private static void round(final Scenario scenario, final AuctionServer server, int threads, long maxNanos,
+			Measurement total) throws InterruptedException
+	{
+		final CountDownLatch ready = new CountDownLatch(threads);
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(threads);
+		final AtomicLong calls = new AtomicLong();
+		final AtomicLong rejected = new AtomicLong();
+		final AtomicLong allocated = new AtomicLong();
+		final long[] deadline = new long[1];
+
+		for (int t = 0; t < threads; t++) {
+			final int thread = t;
+			Thread worker = new Thread(() -> {
+				Random rand = new Random(thread);
+				ready.countDown();
+				try {
+					start.await();
+				}
+				catch (InterruptedException e) {
+					return;
+				}
+				long allocatedBefore = allocatedBytes();
+				long made = 0, turnedDown = 0;
+				//Check the clock every so often, so reading it does not dominate cheap calls
+				outer: while (System.nanoTime() < deadline[0]) {
+					for (int i = 0; i < 64; i++) {
+						Outcome outcome = scenario.call(server, thread, rand);
+						if (outcome == Outcome.DONE)
+							break outer;
+						if (outcome == Outcome.REJECTED)
+							turnedDown++;
+						made++;
+					}
+				}
+				allocated.addAndGet(allocatedBytes() - allocatedBefore);
+				calls.addAndGet(made);
+				rejected.addAndGet(turnedDown);
+				done.countDown();
+			}, "bench-" + t);
+			worker.setDaemon(true);
+			worker.start();
+		}
+
+		ready.await();
+		long gcCount = gcCount(), gcMs = gcMs();
+		long begin = System.nanoTime();
+		deadline[0] = begin + maxNanos;
+		start.countDown();
+		done.await();
+		total.nanos += System.nanoTime() - begin;
+		total.calls += calls.get();
+		total.rejected += rejected.get();
+		total.allocatedBytes += allocated.get();
+		total.gcCount += gcCount() - gcCount;
+		total.gcMs += gcMs() - gcMs;
+	}
+
+	private static long allocatedBytes()
+	{
+		java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (threads instanceof com.sun.management.ThreadMXBean)
+			return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+		return 0;
+	}
+
+	private static long gcCount()
+	{
+		long count = 0;
+		for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans())
+			count += Math.max(0, collector.getCollectionCount());
+		return count;
+	}
+
+	private static long gcMs()
+	{
+		long ms = 0;
+		for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans())
+			ms += Math.max(0, collector.getCollectionTime());
+		return ms;
+	}
+}
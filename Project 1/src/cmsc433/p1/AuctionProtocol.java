@@ -0,0 +1,290 @@
+package cmsc433.p1;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The binary protocol spoken between <code>NetworkAuctionServer</code> and
+ * <code>RemoteAuctionServer</code>.  Every message is a frame:
+ *
+ * <pre>
+ *   int   length of the rest of the frame
+ *   int   request ID, chosen by the client and echoed in the response
+ *   byte  operation (requests) or status (responses)
+ *   ...   arguments or results of the operation
+ * </pre>
+ *
+ * All numbers are big-endian.  Strings are an unsigned short byte count
+ * followed by that many bytes of UTF-8, and a null string has the count
+ * 0xFFFF.  A client may send any number of requests without waiting; the
+ * server answers each connection's requests in the order they were sent.
+ */
+final class AuctionProtocol
+{
+	// Largest frame either side accepts; anything bigger is a protocol error.
+	static final int MAX_FRAME = 1 << 20;
+
+	// Bytes of the length, request ID and operation or status.
+	static final int HEADER = 9;
+
+	// Operations, one for each server method; names are passed as participant IDs.
+	static final byte REGISTER_PARTICIPANT = 1;
+	static final byte PARTICIPANT_ID = 2;
+	static final byte SUBSCRIBE = 3;
+	static final byte POLL_EVENTS = 4;
+	static final byte SUBMIT_ITEM = 5;
+	static final byte GET_ITEMS = 6;
+	static final byte GET_ITEMS_IF_CHANGED = 7;
+	static final byte ITEMS_PRICED_AT_MOST = 8;
+	static final byte ITEMS_LISTED_BY = 9;
+	static final byte ITEMS_ENDING_WITHIN = 10;
+	static final byte SUBMIT_BID = 11;
+	static final byte SUBMIT_BIDS = 12;
+	static final byte SUBMIT_PROXY_BID = 13;
+	static final byte CHECK_BID_STATUS = 14;
+	static final byte ITEM_PRICE = 15;
+	static final byte ITEM_PRICES = 16;
+	static final byte ITEM_UNBID = 17;
+	static final byte PAY_FOR_ITEM = 18;
+	static final byte STATS = 19;
+	static final byte OPEN_JOURNAL = 20;
+	static final byte CHECKPOINT = 21;
+
+	static final byte OK = 0;
+	static final byte INSUFFICIENT_FUNDS = 1;
+	// The result is a string describing what went wrong.
+	static final byte FAILED = 2;
+	// The server turned the call away without doing anything; the result is a string saying why.
+	static final byte THROTTLED = 3;
+	// The server could not read or write a journal file; the result is a string saying why.
+	static final byte IO_FAILED = 4;
+
+	private static final int NULL_STRING = 0xFFFF;
+
+	// Smallest encoded item: two empty strings, three ints and a long.
+	private static final int ITEM_BYTES = 2 + 2 + 3 * 4 + 8;
+
+	private AuctionProtocol()
+	{
+	}
+
+	/**
+	 * A frame being written into a buffer that grows as needed.
+	 */
+	static final class Output
+	{
+		private ByteBuffer buffer;
+		private int frameStart = -1;
+
+		Output(int capacity)
+		{
+			this.buffer = ByteBuffer.allocate(capacity);
+		}
+
+		/**
+		 * Starts a frame, which is finished by <code>endFrame</code>.
+		 */
+		Output beginFrame(int requestID, byte operation)
+		{
+			frameStart = buffer.position();
+			return putInt(0).putInt(requestID).putByte(operation);
+		}
+
+		/**
+		 * Fills in the length of the frame started last.
+		 */
+		void endFrame()
+		{
+			buffer.putInt(frameStart, buffer.position() - frameStart - 4);
+			frameStart = -1;
+		}
+
+		/**
+		 * Drops the frame started last, such as when its results did not fit in a frame.
+		 */
+		void abandonFrame()
+		{
+			buffer.position(frameStart);
+			frameStart = -1;
+		}
+
+		/**
+		 * @return Bytes written to the frame started last
+		 */
+		int frameSize()
+		{
+			return buffer.position() - frameStart;
+		}
+
+		Output putByte(byte value)
+		{
+			room(1).put(value);
+			return this;
+		}
+
+		Output putBoolean(boolean value)
+		{
+			return putByte(value ? (byte) 1 : (byte) 0);
+		}
+
+		Output putInt(int value)
+		{
+			room(4).putInt(value);
+			return this;
+		}
+
+		Output putLong(long value)
+		{
+			room(8).putLong(value);
+			return this;
+		}
+
+		/**
+		 * Appends the remaining bytes of a buffer, such as whole frames written by another <code>Output</code>.
+		 */
+		Output put(ByteBuffer bytes)
+		{
+			room(bytes.remaining()).put(bytes);
+			return this;
+		}
+
+		Output putString(String value)
+		{
+			if (value == null)
+				return putShort(NULL_STRING);
+
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			if (bytes.length >= NULL_STRING)
+				throw new IllegalArgumentException("String too long: " + bytes.length + " bytes");
+			putShort(bytes.length);
+			room(bytes.length).put(bytes);
+			return this;
+		}
+
+		private Output putShort(int value)
+		{
+			room(2).putShort((short) value);
+			return this;
+		}
+
+		/**
+		 * Writes each item with the time left until its bidding closes, which
+		 * the reader turns back into a deadline on its own clock.
+		 */
+		Output putItems(List<Item> items)
+		{
+			putInt(items.size());
+			long now = CoarseClock.preciseNanoTime();
+			for (Item item : items) {
+				putString(item.seller()).putString(item.name()).putInt(item.listingID())
+						.putInt(item.lowestBiddingPrice()).putInt(item.biddingDurationMs())
+						.putLong(item.biddingDeadlineNanos() - now);
+			}
+			return this;
+		}
+
+		/**
+		 * @return The buffer holding what has been written, ready to be drained with <code>compact</code>
+		 */
+		ByteBuffer buffer()
+		{
+			return buffer;
+		}
+
+		/**
+		 * @return True if nothing is waiting to be sent
+		 */
+		boolean isEmpty()
+		{
+			return buffer.position() == 0;
+		}
+
+		private ByteBuffer room(int bytes)
+		{
+			if (buffer.remaining() < bytes) {
+				ByteBuffer grown = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+				buffer.flip();
+				grown.put(buffer);
+				buffer = grown;
+			}
+			return buffer;
+		}
+	}
+
+	/**
+	 * @return The length of the frame starting at the buffer's position, if it
+	 * is all in the buffer, otherwise -1
+	 * @throws ProtocolException If the length is out of range
+	 */
+	static int completeFrame(ByteBuffer in) throws ProtocolException
+	{
+		if (in.remaining() < 4)
+			return -1;
+		int length = in.getInt(in.position());
+		if (length < HEADER - 4 || length > MAX_FRAME)
+			throw new ProtocolException("Bad frame length: " + length);
+		return in.remaining() - 4 >= length ? length : -1;
+	}
+
+	/**
+	 * Reads the count of a list whose elements take at least <code>elementBytes</code> each.
+	 * @throws BufferUnderflowException If the frame is too short to hold that many
+	 */
+	static int getCount(ByteBuffer in, int elementBytes)
+	{
+		int count = in.getInt();
+		if (count < 0 || (long) count * elementBytes > in.remaining())
+			throw new BufferUnderflowException();
+		return count;
+	}
+
+	static boolean getBoolean(ByteBuffer in)
+	{
+		return in.get() != 0;
+	}
+
+	static String getString(ByteBuffer in)
+	{
+		int length = in.getShort() & 0xFFFF;
+		if (length == NULL_STRING)
+			return null;
+		if (length > in.remaining())
+			throw new BufferUnderflowException();
+
+		String value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+		in.position(in.position() + length);
+		return value;
+	}
+
+	static List<Item> getItemList(ByteBuffer in)
+	{
+		int count = getCount(in, ITEM_BYTES);
+		List<Item> items = new ArrayList<Item>(count);
+		long now = CoarseClock.preciseNanoTime();
+		for (int i = 0; i < count; i++) {
+			String seller = getString(in);
+			String name = getString(in);
+			int listingID = in.getInt();
+			int lowestBiddingPrice = in.getInt();
+			int biddingDurationMs = in.getInt();
+			items.add(new Item(seller, name, listingID, lowestBiddingPrice, biddingDurationMs, now + in.getLong()));
+		}
+		return items;
+	}
+
+	/**
+	 * A frame that breaks the protocol.  The connection it came on is closed.
+	 */
+	static class ProtocolException extends Exception
+	{
+		private static final long serialVersionUID = 1L;
+
+		ProtocolException(String message)
+		{
+			super(message);
+		}
+	}
+}
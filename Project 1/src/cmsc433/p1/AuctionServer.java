@@ -5,10 +5,19 @@ package cmsc433.p1;
  */
 
 
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.StampedLock;
 
 
 
@@ -49,24 +58,41 @@ public class AuctionServer
 	private int revenue = 0;
 	private int uncollectedRevenue = 0;
 
-	public int soldItemsCount()
+	// Stamp guarding the three statistics.  Writers, already serialized by instanceLock, take its write
+	// lock around each update; readers only read optimistically and retry, so they never hold up a payment.
+	private final StampedLock statsStamp = new StampedLock();
+
+	/**
+	 * Reads all the statistics at once without taking any lock, so polling
+	 * them never delays <code>payForItem</code> or the closing of listings.
+	 * @return The statistics as of one moment
+	 */
+	public AuctionStats stats()
 	{
-		synchronized (instanceLock) {
-			return this.soldItemsCount;
+		while (true) {
+			long stamp = statsStamp.tryOptimisticRead();
+			int soldItemsCount = this.soldItemsCount;
+			int revenue = this.revenue;
+			int uncollectedRevenue = this.uncollectedRevenue;
+			if (statsStamp.validate(stamp))
+				return new AuctionStats(soldItemsCount, revenue, uncollectedRevenue);
+			//A writer holds the stamp only for a few stores, so let it finish
+			Thread.yield();
 		}
 	}
 
+	public int soldItemsCount()
+	{
+		return stats().getSoldItemsCount();
+	}
+
 	public int revenue()
 	{
-		synchronized (instanceLock) {
-			return this.revenue;
-		}
+		return stats().getRevenue();
 	}
 
 	public int uncollectedRevenue () {
-		synchronized (instanceLock) {
-			return this.uncollectedRevenue;
-		}
+		return stats().getUncollectedRevenue();
 	}
 
 
@@ -83,37 +109,35 @@ public class AuctionServer
 
 
 
+
+
+
 	/**
 	 * Some variables we think will be of potential use as you implement the server...
 	 */
 
-	// List of items currently up for bidding (will eventually remove things that have expired).
-	private List<Item> itemsUpForBidding = new ArrayList<Item>();
+	// List of items currently up for bidding (the expiry wheel removes them once they close).  Replaced,
+	// never modified, so it can be read without locking; changes are made while holding itemLock.
+	private volatile ItemSnapshot itemsUpForBidding = ItemSnapshot.EMPTY;
 
 
 	// The last value used as a listing ID.  We'll assume the first thing added gets a listing ID of 0.
 	private int lastListingID = -1;
 
-	// List of item IDs and actual items.  This is a running list with everything ever added to the auction.
-	private HashMap<Integer, Item> itemsAndIDs = new HashMap<Integer, Item>();
+	// Step between listing IDs; a shard of a ShardedAuctionServer only hands out every Nth ID.
+	private int listingIDStride = 1;
 
-	// List of itemIDs and the highest bid for each item.  This is a running list with everything ever added to the auction.
-	private HashMap<Integer, Integer> highestBids = new HashMap<Integer, Integer>();
+	// Number of items up for bidding, counted against serverCapacity.  Shared by all shards of a
+	// ShardedAuctionServer so the capacity applies to the whole server.
+	private AtomicInteger activeListings = new AtomicInteger();
 
-	// List of itemIDs and the person who made the highest bid for each item.   This is a running list with everything ever bid upon.
-	private HashMap<Integer, String> highestBidders = new HashMap<Integer, String>();
+	// Items and bidding state indexed by listing ID.  This is a running list with everything ever added to the auction.
+	private ListingTable listings = new ListingTable();
 
-	// List of Bidders who have been permanently banned because they failed to pay the amount they promised for an item.
-	private HashSet<String> blacklist = new HashSet<String>();
-
-	// List of sellers and how many items they have currently up for bidding.
-	private HashMap<String, Integer> itemsPerSeller = new HashMap<String, Integer>();
-
-	// List of buyers and how many items on which they are currently bidding.
-	private HashMap<String, Integer> itemsPerBuyer = new HashMap<String, Integer>();
-
-	// List of itemIDs that have been paid for. This is a running list including everything ever paid for.
-	private HashSet<Integer> itemsSold = new HashSet<Integer> ();
+	// Sellers and bidders by participant ID: how many items each seller has up for bidding, how many
+	// items each bidder is currently bidding on, and which bidders have been permanently banned because
+	// they failed to pay the amount they promised for an item.
+	private ParticipantTable participants = new ParticipantTable();
 
 	// Object used for instance synchronization if you need to do it at some point
 	// since as a good practice we don't use synchronized (this) if we are doing internal
@@ -137,14 +161,222 @@ public class AuctionServer
 	 *  then you should probably be using that structure's intrinsic lock.
 	 */
 
-	//Lock used for seller synchronization.
-	private Object sellerLock = new Object();
+	/**
+	 * Number of listing lock stripes used by the singleton instance.
+	 */
+	public static final int defaultLockStripes = 64;
 
-	//Lock used for item synchronization.
+	//Lock used for changing itemsUpForBidding and lastListingID.
 	private Object itemLock = new Object();
 
-	//Lock used for bidder synchronization
+	//Lock used for bidder counts by the SYNCHRONIZED engine
 	private Object bidderLock = new Object();
+
+	//Locks serializing SYNCHRONIZED bids; listing N is guarded by listingLocks[N % listingLocks.length].
+	private Object[] listingLocks = newLocks(defaultLockStripes);
+
+	// Acquisitions, wait and hold times of the locks above; one LockStats covers all the listing locks.
+	private final LockStats itemLockStats = new LockStats();
+	private final LockStats bidderLockStats = new LockStats();
+	private final LockStats listingLockStats = new LockStats();
+	private final LockStats instanceLockStats = new LockStats();
+
+	// How bids are placed, see BidEngine.
+	private BidEngine bidEngine = BidEngine.SYNCHRONIZED;
+
+	// Active listings by price, seller and deadline, for the item queries.
+	private ListingIndex index = new ListingIndex();
+
+	// Closes listings once their bidding time has run out.
+	private ExpiryWheel expiryWheel = new ExpiryWheel(10, 256, this::expire);
+
+	// Write-ahead log of every change to the server, or null if it is not journaled (see openJournal).
+	private volatile Journal journal;
+
+	// The journal's current segment, the checkpoint replacing the segments before it, and the
+	// segment a checkpoint rotates to before it replaces the current one.
+	private File journalFile, checkpointFile, nextSegmentFile;
+
+	//Lock held while taking a checkpoint or closing the journal.
+	private Object checkpointLock = new Object();
+
+	// Generation and revenue of the checkpoint still to be written after recovery, or -1.
+	private long recoveredGeneration = -1;
+	private int recoveredRevenue;
+
+	// Writes the checkpoint after recovery and then takes checkpoints periodically, or null.
+	private Thread checkpointer;
+
+	// The last failure of a background checkpoint, until checkpoint or shutdown throws it.
+	private volatile IOException checkpointFailure;
+
+	/**
+	 * Creates a server whose listings are guarded by the given number of lock
+	 * stripes.  A single stripe makes every listing share one lock, which is how
+	 * the server behaved before per-listing locking.
+	 * @param lockStripes Number of listing locks, at least 1
+	 */
+	protected AuctionServer(int lockStripes)
+	{
+		this(lockStripes, BidEngine.SYNCHRONIZED);
+	}
+
+	/**
+	 * Creates a server using the given bid engine.
+	 * @param lockStripes Number of listing locks, at least 1
+	 * @param bidEngine How bids are placed
+	 */
+	protected AuctionServer(int lockStripes, BidEngine bidEngine)
+	{
+		this();
+		if (lockStripes < 1)
+			throw new IllegalArgumentException("lockStripes must be positive");
+		this.listingLocks = newLocks(lockStripes);
+		this.bidEngine = bidEngine;
+	}
+
+	/**
+	 * Creates one shard of a <code>ShardedAuctionServer</code>.  The shard hands
+	 * out listing IDs <code>shard</code>, <code>shard + shardCount</code>... and
+	 * shares its participants, with their quotas, and the server capacity with
+	 * the other shards.
+	 */
+	AuctionServer(int lockStripes, BidEngine bidEngine, ParticipantTable participants, AtomicInteger activeListings,
+			int shard, int shardCount)
+	{
+		this(lockStripes, bidEngine);
+		this.participants = participants;
+		this.activeListings = activeListings;
+		this.listings = new ListingTable(shard, shardCount);
+		this.lastListingID = shard - shardCount;
+		this.listingIDStride = shardCount;
+	}
+
+	/**
+	 * Creates the router of a <code>ShardedAuctionServer</code>, which only
+	 * keeps the participants shared by its shards.
+	 */
+	AuctionServer(ParticipantTable participants)
+	{
+		this();
+		this.participants = participants;
+	}
+
+	private static Object[] newLocks(int count)
+	{
+		Object[] locks = new Object[count];
+		for (int i = 0; i < count; i++)
+			locks[i] = new Object();
+		return locks;
+	}
+
+	private Object lockFor(int listingID)
+	{
+		return listingLocks[stripeOf(listingID)];
+	}
+
+	private int stripeOf(int listingID)
+	{
+		return listingID % listingLocks.length;
+	}
+
+	/*
+	 * A listing's bidding state is packed into one long so that it can be read
+	 * and replaced atomically:
+	 *
+	 *   bits 63-32  highest bid (or the opening price)
+	 *   bit  31     closed
+	 *   bit  30     sold
+	 *   bit  29     the highest bid is backed by a proxy bid (see submitProxyBid)
+	 *   bits 28-0   highest bidder's ID + 1, or 0 if there is no bid
+	 *
+	 * A listing's proxy bid is packed the same way, with the proxy's maximum
+	 * amount in place of the highest bid.  It is only meaningful while the proxy
+	 * bit is set, and only read or written under the listing's stripe lock.
+	 */
+	private static final long CLOSED = 1L << 31;
+	private static final long SOLD = 1L << 30;
+	private static final long PROXY = 1L << 29;
+	private static final long BIDDER_MASK = PROXY - 1;
+	private static final int NO_BIDDER = -1;
+	private static final long NOT_PLACED = -1;
+	private static final long PROXIED = -2;
+
+	private static long bidWord(int amount, int bidderID)
+	{
+		return ((long) amount << 32) | (bidderID + 1);
+	}
+
+	private static int amountOf(long word)
+	{
+		return (int) (word >>> 32);
+	}
+
+	private static int bidderOf(long word)
+	{
+		return (int) (word & BIDDER_MASK) - 1;
+	}
+
+	/**
+	 * Register a seller or bidder.  The returned ID can be passed to the
+	 * participant ID overloads of the server's methods, which skip looking the
+	 * name up on every call.  Registering a name again returns the same ID.
+	 * @param name Name of the <code>Seller</code> or <code>Bidder</code>
+	 * @return The participant's ID
+	 */
+	public int registerParticipant(String name)
+	{
+		int participantID = participants.register(name);
+		commit();
+		return participantID;
+	}
+
+	/**
+	 * Looks up a participant without registering it.
+	 * @return The participant's ID, or -1 if the name has not registered
+	 */
+	int participantID(String name)
+	{
+		return participants.id(name);
+	}
+
+	/**
+	 * Start receiving <code>BidEvents</code> for a participant: OUTBID when one
+	 * of their bids is beaten, WON when they win an item and, for sellers, CLOSED
+	 * when bidding on one of their items ends.  Subscribing again has no effect.
+	 * Events are kept until collected with <code>pollEvents</code>.
+	 * @param participantID Participant ID of the <code>Bidder</code> or <code>Seller</code>
+	 */
+	public void subscribe(int participantID)
+	{
+		if (participants.exists(participantID))
+			participants.subscribe(participantID);
+	}
+
+	/**
+	 * Collect the events delivered to a subscribed participant since the last call.
+	 * @param participantID Participant ID of the <code>Bidder</code> or <code>Seller</code>
+	 * @return The events in the order they happened; empty if there are none or the participant has not subscribed
+	 */
+	public List<BidEvent> pollEvents(int participantID)
+	{
+		List<BidEvent> events = new ArrayList<BidEvent>();
+		Queue<BidEvent> queue = participants.exists(participantID) ? participants.events(participantID) : null;
+		if (queue != null) {
+			BidEvent event;
+			while ((event = queue.poll()) != null)
+				events.add(event);
+		}
+		return events;
+	}
+
+	private void deliver(int participantID, BidEvent.Type type, int listingID, int amount)
+	{
+		Queue<BidEvent> queue = participants.events(participantID);
+		if (queue != null)
+			queue.offer(new BidEvent(type, listingID, amount));
+	}
+
 	/**
 	 * Attempt to submit an <code>Item</code> to the auction
 	 * @param sellerName Name of the <code>Seller</code>
@@ -154,6 +386,19 @@ public class AuctionServer
 	 * @return A positive, unique listing ID if the <code>Item</code> listed successfully, otherwise -1
 	 */
 	public int submitItem(String sellerName, String itemName, int lowestBiddingPrice, int biddingDurationMs)
+	{
+		return submitItem(registerParticipant(sellerName), itemName, lowestBiddingPrice, biddingDurationMs);
+	}
+
+	/**
+	 * Attempt to submit an <code>Item</code> to the auction
+	 * @param sellerID Participant ID of the <code>Seller</code>
+	 * @param itemName Name of the <code>Item</code>
+	 * @param lowestBiddingPrice Opening price
+	 * @param biddingDurationMs Bidding duration in milliseconds
+	 * @return A positive, unique listing ID if the <code>Item</code> listed successfully, otherwise -1
+	 */
+	public int submitItem(int sellerID, String itemName, int lowestBiddingPrice, int biddingDurationMs)
 	{
 		// TODO: IMPLEMENT CODE HERE
 		// Some reminders:
@@ -162,36 +407,44 @@ public class AuctionServer
 		//   If the seller has too many items up for bidding, don't let them add this one.
 		//   Don't forget to increment the number of things the seller has currently listed.
 
-		Item itemForSale;
+		if (!participants.exists(sellerID))
+			return -1;
 
-		synchronized (sellerLock) {
-			if (!itemsPerSeller.containsKey(sellerName))
-				itemsPerSeller.put(sellerName, 0);
-			if (itemsPerSeller.get(sellerName) >= maxSellerItems)
+		//Reserve one of the seller's item slots up front
+		int count;
+		do {
+			count = participants.items(sellerID);
+			if (count >= maxSellerItems)
 				return -1;
-		}
-
-		//Check if the server can take the item
-		synchronized (itemLock) {
-			//Check if the server is at capacity
-			if (itemsUpForBidding.size() >= serverCapacity)
+		} while (!participants.compareAndSetItems(sellerID, count, count + 1));
+
+		//Check if the server is at capacity
+		int active;
+		do {
+			active = activeListings.get();
+			if (active >= serverCapacity) {
+				releaseSellerSlot(sellerID);
 				return -1;
-			//Check if the seller exists and is at max items
-
-			//Create and add the item
-			lastListingID++;
-			itemForSale = new Item(sellerName, itemName, lastListingID, lowestBiddingPrice, biddingDurationMs);
-			itemsUpForBidding.add(itemForSale);
-			itemsAndIDs.put(lastListingID, itemForSale);
-			highestBids.put(lastListingID, lowestBiddingPrice);
-			highestBidders.put(lastListingID, null);
-		}
-
-		synchronized (sellerLock) {
-			int oldValue = itemsPerSeller.get(sellerName);
-			itemsPerSeller.replace(sellerName, oldValue++);
-			return itemForSale.listingID();
-		}
+			}
+		} while (!activeListings.compareAndSet(active, active + 1));
+
+		//Create and add the item
+		Item itemForSale = itemLockStats.locked(itemLock, () -> {
+			lastListingID += listingIDStride;
+			Item item = new Item(participants.name(sellerID), itemName, lastListingID, lowestBiddingPrice, biddingDurationMs);
+			Journal journal = this.journal;
+			if (journal != null)
+				journal.listing(lastListingID, sellerID, itemName, lowestBiddingPrice, biddingDurationMs,
+						System.currentTimeMillis() + biddingDurationMs);
+			listings.add(item, bidWord(lowestBiddingPrice, NO_BIDDER));
+			index.add(item, sellerID);
+			itemsUpForBidding = itemsUpForBidding.with(item);
+			return item;
+		});
+
+		expiryWheel.schedule(itemForSale.listingID(), System.currentTimeMillis() + biddingDurationMs);
+		commit();
+		return itemForSale.listingID();
 	}
 
 
@@ -206,11 +459,117 @@ public class AuctionServer
 		// Some reminders:
 		//    Don't forget that whatever you return is now outside of your control.
 
-		synchronized (itemLock) {
-			return new ArrayList<Item>(itemsUpForBidding);
+		return new ArrayList<Item>(itemsUpForBidding.items());
+	}
+
+	/**
+	 * Get the <code>Items</code> active in the auction along with the version
+	 * of the active item set.  The snapshot is shared and cannot be modified.
+	 * @return The current <code>ItemSnapshot</code>
+	 */
+	public ItemSnapshot getItemSnapshot()
+	{
+		return itemsUpForBidding;
+	}
+
+	/**
+	 * Get the <code>Items</code> active in the auction if they have changed
+	 * since an earlier snapshot.
+	 * @param version Version of the caller's last <code>ItemSnapshot</code>
+	 * @return The current <code>ItemSnapshot</code>, or null if its version is still <code>version</code>
+	 */
+	public ItemSnapshot getItemsIfChanged(long version)
+	{
+		ItemSnapshot current = itemsUpForBidding;
+		return current.version() == version ? null : current;
+	}
+
+
+	/**
+	 * Find active <code>Items</code> whose current price is at most the given amount
+	 * @param maxPrice Highest current price to include
+	 * @param offset Number of matching <code>Items</code> to skip
+	 * @param limit Maximum number of <code>Items</code> to return
+	 * @return The matching <code>Items</code>, cheapest first
+	 */
+	public List<Item> itemsPricedAtMost(int maxPrice, int offset, int limit)
+	{
+		List<Item> found = new ArrayList<Item>();
+		for (long key : index.pricedAtMost(maxPrice)) {
+			if (found.size() >= limit)
+				break;
+
+			int listingID = ListingIndex.listingOf(key);
+			long current = listings.bid(listingID);
+			if ((current & CLOSED) != 0 || amountOf(current) != ListingIndex.priceOf(key)) {
+				//Left behind by a racing bid or close
+				index.removePriceKey(key);
+				indexCurrentPrice(listingID);
+				continue;
+			}
+
+			//Null if a close since the bid word was read has already settled the listing
+			Item item = listings.item(listingID);
+			if (item != null && item.biddingOpen() && offset-- <= 0)
+				found.add(item);
+		}
+		return found;
+	}
+
+	/**
+	 * Find a <code>Seller</code>'s active <code>Items</code>
+	 * @param sellerName Name of the <code>Seller</code>
+	 * @param offset Number of matching <code>Items</code> to skip
+	 * @param limit Maximum number of <code>Items</code> to return
+	 * @return The seller's <code>Items</code>, in listing order
+	 */
+	public List<Item> itemsListedBy(String sellerName, int offset, int limit)
+	{
+		return itemsListedBy(participantID(sellerName), offset, limit);
+	}
+
+	/**
+	 * Find a <code>Seller</code>'s active <code>Items</code>
+	 * @param sellerID Participant ID of the <code>Seller</code>
+	 * @param offset Number of matching <code>Items</code> to skip
+	 * @param limit Maximum number of <code>Items</code> to return
+	 * @return The seller's <code>Items</code>, in listing order
+	 */
+	public List<Item> itemsListedBy(int sellerID, int offset, int limit)
+	{
+		List<Item> found = new ArrayList<Item>();
+		for (int listingID : index.listedBy(sellerID)) {
+			if (found.size() >= limit)
+				break;
+
+			//Null if a racing close has already settled the listing
+			Item item = listings.item(listingID);
+			if (item != null && item.biddingOpen() && offset-- <= 0)
+				found.add(item);
 		}
+		return found;
 	}
 
+	/**
+	 * Find active <code>Items</code> whose bidding closes within the given time
+	 * @param withinMs Time from now in milliseconds
+	 * @param offset Number of matching <code>Items</code> to skip
+	 * @param limit Maximum number of <code>Items</code> to return
+	 * @return The matching <code>Items</code>, soonest to close first
+	 */
+	public List<Item> itemsEndingWithin(int withinMs, int offset, int limit)
+	{
+		long until = CoarseClock.nanoTime() + withinMs * 1000000L;
+		List<Item> found = new ArrayList<Item>();
+		for (Item item : index.byDeadline()) {
+			if (found.size() >= limit || item.biddingDeadlineNanos() - until > 0)
+				break;
+
+			if (item.biddingOpen() && offset-- <= 0)
+				found.add(item);
+		}
+		return found;
+	}
 
 	/**
 	 * Attempt to submit a bid for an <code>Item</code>
@@ -220,6 +579,18 @@ public class AuctionServer
 	 * @return True if successfully bid, false otherwise
 	 */
 	public boolean submitBid(String bidderName, int listingID, int biddingAmount)
+	{
+		return submitBid(registerParticipant(bidderName), listingID, biddingAmount);
+	}
+
+	/**
+	 * Attempt to submit a bid for an <code>Item</code>
+	 * @param bidderID Participant ID of the <code>Bidder</code>
+	 * @param listingID Unique ID of the <code>Item</code>
+	 * @param biddingAmount Total amount to bid
+	 * @return True if successfully bid, false otherwise
+	 */
+	public boolean submitBid(int bidderID, int listingID, int biddingAmount)
 	{
 		// TODO: IMPLEMENT CODE HERE
 		// Some reminders:
@@ -233,54 +604,334 @@ public class AuctionServer
 		//   Decrement the former winning bidder's count
 		//   Put your bid in place
 
-		synchronized (bidderLock) {
-			//Check if bidder is blacklisted
-			if (blacklist.contains(bidderName))
-				return false;
+		if (!biddable(bidderID, listingID, biddingAmount))
+			return false;
 
-			//Check if new bidder
-			if (!itemsPerBuyer.containsKey(bidderName))
-				itemsPerBuyer.put(bidderName, 0);
+		//Reserve one of the bidder's bid slots; it is given back if the bid fails
+		if (!acquireBidSlot(bidderID))
+			return false;
 
-			//Check if bidder has too many active bids
-			if (itemsPerBuyer.get(bidderName) >= maxBidCount)
-				return false;
+		long replaced;
+		if (bidEngine == BidEngine.LOCK_FREE) {
+			replaced = placeBidLockFree(bidderID, listingID, biddingAmount);
+		}
+		else {
+			replaced = listingLockStats.lockedLong(lockFor(listingID), () -> placeBidLocked(bidderID, listingID, biddingAmount));
 		}
 
-		synchronized (itemLock) {
-			Item item = itemsAndIDs.get(listingID);
-			if (item == null)
-				return false;
+		//Give back the reserved slot, or the previous bidder's slot if they were outbid
+		if (replaced == NOT_PLACED) {
+			releaseBidSlot(bidderID);
+			return false;
+		}
+		if (bidderOf(replaced) != NO_BIDDER) {
+			releaseBidSlot(bidderOf(replaced));
+			deliver(bidderOf(replaced), BidEvent.Type.OUTBID, listingID, amountOf(replaced));
+		}
+		leadTaken(bidderID, listingID, replaced);
+		repriced(listingID, amountOf(replaced), biddingAmount);
 
-			if (!item.biddingOpen())
-				return false;
-			//Check if the bidder is not the highest bidder
-			String currentBidder = highestBidders.get(listingID);
-			if (bidderName.equals(currentBidder))
-				return false;
+		commit();
+		return true;
+	}
 
-			int highestBid = highestBids.get(listingID);
-			if (biddingAmount <= highestBid)
-				return false;
+	/**
+	 * Attempt to submit a batch of bids.  Bids are placed in order, except that
+	 * with the SYNCHRONIZED engine bids are grouped by lock stripe so each stripe
+	 * lock, and the bidder lock, is taken once for the whole batch.
+	 * @param bids The bids to submit
+	 * @return For each bid, true if it was successfully placed, false otherwise
+	 */
+	public boolean[] submitBids(BidRequest[] bids)
+	{
+		boolean[] placed = new boolean[bids.length];
+		long[] replaced = new long[bids.length];
+		Arrays.fill(replaced, NOT_PLACED);
+
+		if (bidEngine == BidEngine.LOCK_FREE) {
+			for (int i = 0; i < bids.length; i++) {
+				BidRequest bid = bids[i];
+				if (biddable(bid.bidderID(), bid.listingID(), bid.biddingAmount()) && takeBidSlot(bid.bidderID())) {
+					replaced[i] = placeBidLockFree(bid.bidderID(), bid.listingID(), bid.biddingAmount());
+					if (replaced[i] == NOT_PLACED)
+						participants.addBids(bid.bidderID(), -1);
+				}
+			}
+		}
+		else {
+			//Reserve bid slots for the whole batch, ordering the reserved bids by stripe then position
+			long[] order = new long[bids.length];
+			int reserved = bidderLockStats.locked(bidderLock, () -> reserveBidSlots(bids, order));
+			Arrays.sort(order, 0, reserved);
+
+			for (int k = 0; k < reserved; ) {
+				int from = k;
+				k = listingLockStats.locked(listingLocks[(int) (order[k] >>> 32)], () -> placeStripe(bids, order, from, reserved, replaced));
+			}
 
-			//Remove the previous bidder's bid
-			if (currentBidder != null) {
-				synchronized (bidderLock) {
-					int oldValue = itemsPerBuyer.get(currentBidder);
-					itemsPerBuyer.replace(currentBidder, oldValue--);
+			bidderLockStats.lockedRun(bidderLock, () -> {
+				for (int k = 0; k < reserved; k++) {
+					if (replaced[(int) order[k]] == NOT_PLACED)
+						participants.addBids(bids[(int) order[k]].bidderID(), -1);
+				}
+				for (int i = 0; i < bids.length; i++) {
+					if (replaced[i] != NOT_PLACED && bidderOf(replaced[i]) != NO_BIDDER)
+						participants.addBids(bidderOf(replaced[i]), -1);
 				}
+			});
+		}
+
+		for (int i = 0; i < bids.length; i++) {
+			if (replaced[i] == NOT_PLACED)
+				continue;
+			if (bidderOf(replaced[i]) != NO_BIDDER) {
+				if (bidEngine == BidEngine.LOCK_FREE)
+					participants.addBids(bidderOf(replaced[i]), -1);
+				deliver(bidderOf(replaced[i]), BidEvent.Type.OUTBID, bids[i].listingID(), amountOf(replaced[i]));
 			}
+			leadTaken(bids[i].bidderID(), bids[i].listingID(), replaced[i]);
+			repriced(bids[i].listingID(), amountOf(replaced[i]), bids[i].biddingAmount());
+			placed[i] = true;
+		}
+		commit();
+		return placed;
+	}
 
-			highestBids.replace(listingID, biddingAmount);
-			highestBidders.replace(listingID, bidderName);
+	/**
+	 * Reserves a bid slot for each bid in a batch that could be placed, and
+	 * lists those bids in <code>order</code>, each as its stripe over its
+	 * position in the batch.  The caller holds bidderLock.
+	 * @return Number of bids reserved
+	 */
+	private int reserveBidSlots(BidRequest[] bids, long[] order)
+	{
+		int reserved = 0;
+		for (int i = 0; i < bids.length; i++) {
+			BidRequest bid = bids[i];
+			if (biddable(bid.bidderID(), bid.listingID(), bid.biddingAmount()) && takeBidSlot(bid.bidderID()))
+				order[reserved++] = ((long) stripeOf(bid.listingID()) << 32) | i;
 		}
+		return reserved;
+	}
+
+	/**
+	 * Places the reserved bids of a batch that fall on the same stripe as
+	 * <code>order[from]</code>.  The caller holds that stripe's lock.
+	 * @return Where the next stripe's bids start in <code>order</code>
+	 */
+	private int placeStripe(BidRequest[] bids, long[] order, int from, int reserved, long[] replaced)
+	{
+		int stripe = (int) (order[from] >>> 32);
+		int k = from;
+		do {
+			BidRequest bid = bids[(int) order[k]];
+			replaced[(int) order[k]] = placeBidLocked(bid.bidderID(), bid.listingID(), bid.biddingAmount());
+			k++;
+		} while (k < reserved && (int) (order[k] >>> 32) == stripe);
+		return k;
+	}
+
+	/**
+	 * Whether a bid could be placed at all: the item exists and is open, the
+	 * bidder is registered and the amount is not negative.
+	 */
+	private boolean biddable(int bidderID, int listingID, int biddingAmount)
+	{
+		Item item = listings.item(listingID);
+		return item != null && biddingAmount >= 0 && participants.exists(bidderID) && item.biddingOpen();
+	}
+
+	/**
+	 * Places a bid on a listing if it outbids the current one, as replaceBid,
+	 * taking the stripe lock only if the listing has a proxy bid.
+	 * @return The bid word that was replaced, or NOT_PLACED
+	 */
+	private long placeBidLockFree(int bidderID, int listingID, int biddingAmount)
+	{
+		long replaced = replaceBid(bidderID, listingID, biddingAmount);
+		if (replaced != PROXIED)
+			return replaced;
+
+		return listingLockStats.lockedLong(lockFor(listingID), () -> placeBidLocked(bidderID, listingID, biddingAmount));
+	}
+
+	/**
+	 * Places a bid on a listing if it outbids the current one, letting a proxy
+	 * bid respond.  The caller holds the listing's stripe lock.
+	 * @return The bid word that was replaced, or NOT_PLACED
+	 */
+	private long placeBidLocked(int bidderID, int listingID, int biddingAmount)
+	{
+		long replaced = replaceBid(bidderID, listingID, biddingAmount);
+		return replaced != PROXIED ? replaced : bidAgainstProxy(bidderID, listingID, biddingAmount);
+	}
+
+	/**
+	 * Places a bid on a listing without a proxy bid if it outbids the current
+	 * one.  The SYNCHRONIZED engine calls this while holding the listing's stripe
+	 * lock; closing and cancelling do not take that lock, so the word is always
+	 * swapped atomically.
+	 * @return The bid word that was replaced, NOT_PLACED, or PROXIED if the
+	 * listing has a proxy bid
+	 */
+	private long replaceBid(int bidderID, int listingID, int biddingAmount)
+	{
+		long bid = bidWord(biddingAmount, bidderID);
+		long current;
+		do {
+			current = listings.bid(listingID);
+			//A closed listing keeps its PROXY bit, but must not send the bid on to the proxy
+			if (!outbids(current, bidderID, biddingAmount) || !biddingOpen(listingID))
+				return NOT_PLACED;
+			if ((current & PROXY) != 0)
+				return PROXIED;
+		} while (!casBid(listingID, current, bid));
+		return current;
+	}
+
+	/**
+	 * Whether the listing's deadline is still ahead.  The timer wheel closes a
+	 * listing up to a tick after its deadline, so bids check the deadline again
+	 * just before they are swapped in rather than rely on the CLOSED bit alone.
+	 */
+	private boolean biddingOpen(int listingID)
+	{
+		Item item = listings.item(listingID);
+		return item != null && item.biddingOpen();
+	}
 
-		synchronized (bidderLock) {
-			int oldValue = itemsPerBuyer.get(bidderName);
-			itemsPerBuyer.replace(bidderName, oldValue++);
+	/**
+	 * Places a bid on a listing whose highest bid is backed by a proxy.  A bid
+	 * above the proxy's maximum replaces it; otherwise the proxy raises its bid to
+	 * one more than the new bid, up to its maximum, and the new bid fails.  The
+	 * caller holds the listing's stripe lock.
+	 * @return The bid word that was replaced, or NOT_PLACED
+	 */
+	private long bidAgainstProxy(int bidderID, int listingID, int biddingAmount)
+	{
+		int proxyMax = amountOf(listings.proxy(listingID));
+		long current, bid;
+		do {
+			current = listings.bid(listingID);
+			//A blacklisting may have cancelled the proxy in the meantime
+			if ((current & PROXY) == 0)
+				return replaceBid(bidderID, listingID, biddingAmount);
+			if (!outbids(current, bidderID, biddingAmount) || !biddingOpen(listingID))
+				return NOT_PLACED;
+
+			if (biddingAmount > proxyMax)
+				bid = bidWord(biddingAmount, bidderID);
+			else
+				bid = bidWord(Math.min(biddingAmount + 1, proxyMax), bidderOf(current)) | PROXY;
+		} while (!casBid(listingID, current, bid));
+
+		if ((bid & PROXY) == 0)
+			return current;
+
+		repriced(listingID, amountOf(current), amountOf(bid));
+		return NOT_PLACED;
+	}
+
+	/**
+	 * Register a proxy bid for an <code>Item</code>: the server bids on the
+	 * <code>Bidder</code>'s behalf, raising the highest bid by one whenever it is
+	 * outbid, up to the given maximum.  Competing proxy bids are resolved at once:
+	 * the higher maximum wins at one more than the other's maximum.
+	 * @param bidderName Name of the <code>Bidder</code>
+	 * @param listingID Unique ID of the <code>Item</code>
+	 * @param maxAmount The most the <code>Bidder</code> is willing to bid
+	 * @return True if the <code>Bidder</code> holds the highest bid afterwards, false otherwise
+	 */
+	public boolean submitProxyBid(String bidderName, int listingID, int maxAmount)
+	{
+		return submitProxyBid(registerParticipant(bidderName), listingID, maxAmount);
+	}
+
+	/**
+	 * Register a proxy bid for an <code>Item</code>, see
+	 * <code>submitProxyBid(String, int, int)</code>.
+	 * @param bidderID Participant ID of the <code>Bidder</code>
+	 * @param listingID Unique ID of the <code>Item</code>
+	 * @param maxAmount The most the <code>Bidder</code> is willing to bid
+	 * @return True if the <code>Bidder</code> holds the highest bid afterwards, false otherwise
+	 */
+	public boolean submitProxyBid(int bidderID, int listingID, int maxAmount)
+	{
+		if (!biddable(bidderID, listingID, maxAmount))
+			return false;
+
+		//Reserve one of the bidder's bid slots; it is given back unless the bidder takes the lead
+		if (!acquireBidSlot(bidderID))
+			return false;
+
+		long[] placed = listingLockStats.locked(lockFor(listingID), () -> proxyBidLocked(bidderID, listingID, maxAmount));
+		long current = placed[0], bid = placed[1];
+
+		if (amountOf(bid) != amountOf(current))
+			repriced(listingID, amountOf(current), amountOf(bid));
+
+		boolean leading = (bid & CLOSED) == 0 && bidderOf(bid) == bidderID;
+		if (leading && bidderOf(current) != bidderID) {
+			if (bidderOf(current) != NO_BIDDER) {
+				releaseBidSlot(bidderOf(current));
+				deliver(bidderOf(current), BidEvent.Type.OUTBID, listingID, amountOf(current));
+			}
+			leadTaken(bidderID, listingID, current);
+		}
+		else {
+			releaseBidSlot(bidderID);
 		}
+		commit();
+		return leading;
+	}
 
-		return true;
+	/**
+	 * Places a proxy bid on a listing.  The caller holds the listing's lock.
+	 * @return The bid word the proxy bid replaced, and the listing's bid word afterwards
+	 */
+	private long[] proxyBidLocked(int bidderID, int listingID, int maxAmount)
+	{
+		long proxy = listings.proxy(listingID);
+		long current, bid;
+		do {
+			current = listings.bid(listingID);
+			boolean proxied = (current & PROXY) != 0;
+			if ((current & CLOSED) != 0 || !biddingOpen(listingID)) {
+				bid = current;
+			}
+			else if (bidderOf(current) == bidderID) {
+				//Already in the lead: raise the maximum
+				bid = maxAmount > amountOf(current) ? current | PROXY : current;
+			}
+			else if (proxied && maxAmount <= amountOf(proxy)) {
+				//The standing proxy outbids this one
+				bid = bidWord(Math.max(amountOf(current), Math.min(maxAmount + 1, amountOf(proxy))), bidderOf(current)) | PROXY;
+			}
+			else if (maxAmount > amountOf(current)) {
+				//Take the lead at one more than the current bid or the standing proxy's maximum
+				int floor = proxied ? amountOf(proxy) : amountOf(current);
+				bid = bidWord(Math.min(floor + 1, maxAmount), bidderID) | PROXY;
+			}
+			else {
+				bid = current;
+			}
+		} while (bid != current && !casBid(listingID, current, bid));
+
+		//Record the new maximum unless the bidder's own proxy already goes higher
+		boolean ownProxy = (current & PROXY) != 0 && bidderOf(proxy) == bidderID;
+		if ((bid & (PROXY | CLOSED)) == PROXY && bidderOf(bid) == bidderID
+				&& !(ownProxy && amountOf(proxy) >= maxAmount))
+			setProxy(listingID, bidWord(maxAmount, bidderID));
+		return new long[] {current, bid};
+	}
+
+	/**
+	 * Whether a bid replaces the given bid word: the listing is open, the bidder
+	 * does not already hold the highest bid and the amount is higher.
+	 */
+	private static boolean outbids(long current, int bidderID, int biddingAmount)
+	{
+		return (current & CLOSED) == 0 && bidderOf(current) != bidderID && biddingAmount > amountOf(current);
 	}
 
 	/**
@@ -292,6 +943,19 @@ public class AuctionServer
 	 * 3 (failed) If this <code>Bidder</code> did not win or the <code>Item</code> does not exist
 	 */
 	public int checkBidStatus(String bidderName, int listingID)
+	{
+		return checkBidStatus(participantID(bidderName), listingID);
+	}
+
+	/**
+	 * Check the status of a <code>Bidder</code>'s bid on an <code>Item</code>
+	 * @param bidderID Participant ID of the <code>Bidder</code>
+	 * @param listingID Unique ID of the <code>Item</code>
+	 * @return 1 (success) if bid is over and this <code>Bidder</code> has won<br>
+	 * 2 (open) if this <code>Item</code> is still up for auction<br>
+	 * 3 (failed) If this <code>Bidder</code> did not win or the <code>Item</code> does not exist
+	 */
+	public int checkBidStatus(int bidderID, int listingID)
 	{
 		final int SUCCESS = 1, OPEN = 2, FAILURE = 3;
 		// TODO: IMPLEMENT CODE HERE
@@ -302,52 +966,26 @@ public class AuctionServer
 		//     Update the number of open bids for this seller
 		//     If the item was sold to someone, update the uncollectedRevenue field appropriately
 
-		Item item = null;
-		synchronized (itemLock) {
-			item = itemsAndIDs.get(listingID);
-		}
 		//Check if item exists
-		if (item == null)
+		if (!listings.exists(listingID))
 			return FAILURE;
 
-		//Check if the item is still up for bid
-		if (item.biddingOpen())
-			return OPEN;
-
-		synchronized (sellerLock) {
-			String sellerName = item.seller();
-			int oldValue = itemsPerSeller.get(sellerName);
-			itemsPerSeller.replace(sellerName, oldValue--);
-		}
-
-		//Remove closed item from list
-		String currentBidder = null;
-
-
-		synchronized (itemLock) {
-			currentBidder = highestBidders.get(listingID);
-
-			//Check if bidder is the winner
-			if (!bidderName.equals(currentBidder))
-				return FAILURE;
-
-			itemsUpForBidding.remove(item);
-
-			if (currentBidder != null) {
-				synchronized (instanceLock) {
-					uncollectedRevenue += highestBids.get(listingID);
-				}
-			}
+		//Settled listings have dropped their item, but their bid word is final
+		Item item = listings.item(listingID);
+		long closed;
+		if (item == null) {
+			closed = listings.bid(listingID);
 		}
+		else {
+			//Check if the item is still up for bid
+			if (item.biddingOpen())
+				return OPEN;
 
-		if (currentBidder != null) {
-			synchronized(bidderLock) {
-				int oldValue = itemsPerBuyer.get(bidderName);
-				itemsPerBuyer.replace(bidderName, oldValue--);
-			}
+			closed = closeListing(item);
 		}
 
-		return SUCCESS;
+		//Check if bidder is the winner
+		return bidderID != NO_BIDDER && bidderOf(closed) == bidderID ? SUCCESS : FAILURE;
 	}
 
 	/**
@@ -359,12 +997,23 @@ public class AuctionServer
 	public int itemPrice(int listingID)
 	{
 		// TODO: IMPLEMENT CODE HERE
-		synchronized (itemLock) {
-			if (!itemsAndIDs.containsKey(listingID))
-				return -1;
+		if (!listings.exists(listingID))
+			return -1;
 
-			return highestBids.get(listingID);
-		}
+		return amountOf(listings.bid(listingID));
+	}
+
+	/**
+	 * Check the current bids for several <code>Items</code> at once
+	 * @param listingIDs Unique IDs of the <code>Items</code>
+	 * @return For each listing, the result <code>itemPrice</code> would give
+	 */
+	public int[] itemPrices(int[] listingIDs)
+	{
+		int[] prices = new int[listingIDs.length];
+		for (int i = 0; i < listingIDs.length; i++)
+			prices[i] = listings.exists(listingIDs[i]) ? amountOf(listings.bid(listingIDs[i])) : -1;
+		return prices;
 	}
 
 	/**
@@ -375,9 +1024,7 @@ public class AuctionServer
 	public boolean itemUnbid(int listingID)
 	{
 		// TODO: IMPLEMENT CODE HERE
-		synchronized (itemLock) {
-			return highestBidders.get(listingID) == null;
-		}
+		return !listings.exists(listingID) || bidderOf(listings.bid(listingID)) == NO_BIDDER;
 	}
 
 	/**
@@ -389,6 +1036,18 @@ public class AuctionServer
 	 * @throws InsufficientFundsException If the <code>Bidder</code> did not pay at least the final selling price for the <code>Item</code>
 	 */
 	public String payForItem (String bidderName, int listingID, int amount) throws InsufficientFundsException {
+		return payForItem(participantID(bidderName), listingID, amount);
+	}
+
+	/**
+	 * Pay for an <code>Item</code> that has already been won.
+	 * @param bidderID Participant ID of the <code>Bidder</code>
+	 * @param listingID Unique ID of the <code>Item</code>
+	 * @param amount The amount the <code>Bidder</code> is paying for the item
+	 * @return The name of the <code>Item</code> won, or null if the <code>Item</code> was not won by the <code>Bidder</code> or if the <code>Item</code> did not exist
+	 * @throws InsufficientFundsException If the <code>Bidder</code> did not pay at least the final selling price for the <code>Item</code>
+	 */
+	public String payForItem (int bidderID, int listingID, int amount) throws InsufficientFundsException {
 		// TODO: IMPLEMENT CODE HERE
 		// Remember:
 		// - Check to make sure the buyer is the correct individual and can afford the item
@@ -396,50 +1055,633 @@ public class AuctionServer
 		// - If the amount tendered is insufficient, cancel all active bids held by the buyer,
 		//   add the buyer to the blacklist, and throw an InsufficientFundsException
 
-		Item item = null;
-		String currentBidder;
-		synchronized (itemLock) {
-			item = itemsAndIDs.get(listingID);
-			//Check if item exists
-			if (item == null || item.biddingOpen() || itemsSold.contains(listingID))
-				return null;
+		Item item = listings.item(listingID);
+		//Check if item exists and is closed; settled listings have dropped their item and cannot be paid for
+		if (item == null || !participants.exists(bidderID) || item.biddingOpen())
+			return null;
 
+		//Check if the bidder is the winner and has not paid yet
+		long closed = closeListing(item);
+		if ((closed & SOLD) != 0 || bidderOf(closed) != bidderID)
+			return null;
 
-			currentBidder = highestBidders.get(listingID);
+		int price = amountOf(closed);
+		if (amount < price) {
+			participants.blacklist(bidderID);
+			Journal journal = this.journal;
+			if (journal != null)
+				journal.blacklist(bidderID);
+			//Also commits the blacklisting
+			cancelBids(bidderID);
+			throw new InsufficientFundsException();
+		}
 
+		//The bid word of a closed listing only changes when it is sold, so this fails only on a concurrent payment
+		if (!casBid(listingID, closed, closed | SOLD))
+			return null;
+
+		instanceLockStats.lockedRun(instanceLock, () -> {
+			//Journaled while holding instanceLock so a checkpoint's revenue matches its journal cut
+			Journal journal = this.journal;
+			if (journal != null)
+				journal.payment(listingID, amount);
+			long stamp = statsStamp.writeLock();
+			uncollectedRevenue -= price;
+			revenue += amount;
+			soldItemsCount++;
+			statsStamp.unlockWrite(stamp);
+		});
+		listings.settled(listingID);
+		commit();
+		return item.name();
+	}
+
+	/**
+	 * Closes a listing whose bidding time has run out.  Only the first call for
+	 * a listing does anything: the item leaves the active list, the seller and the
+	 * winner get their slots back and the winning bid is counted as uncollected.
+	 * A listing nobody bid on is settled right away.
+	 * @return The listing's bid word after closing
+	 */
+	private long closeListing(Item item)
+	{
+		int listingID = item.listingID();
+		long current;
+		do {
+			current = listings.bid(listingID);
+			if ((current & CLOSED) != 0)
+				return current;
+		} while (!casBid(listingID, current, current | CLOSED));
+
+		itemLockStats.lockedRun(itemLock, () -> itemsUpForBidding = itemsUpForBidding.without(item));
+		activeListings.decrementAndGet();
+		int sellerID = participants.id(item.seller());
+		index.remove(item, sellerID, amountOf(current));
+		releaseSellerSlot(sellerID);
+
+		if (bidderOf(current) != NO_BIDDER) {
+			participants.held(bidderOf(current)).remove(listingID);
+			releaseBidSlot(bidderOf(current));
+			long won = current;
+			instanceLockStats.lockedRun(instanceLock, () -> {
+				long stamp = statsStamp.writeLock();
+				uncollectedRevenue += amountOf(won);
+				statsStamp.unlockWrite(stamp);
+			});
+			deliver(bidderOf(current), BidEvent.Type.WON, listingID, amountOf(current));
 		}
+		deliver(sellerID, BidEvent.Type.CLOSED, listingID, bidderOf(current) != NO_BIDDER ? amountOf(current) : -1);
 
+		//Nothing is left to pay for an unbid listing
+		if (bidderOf(current) == NO_BIDDER)
+			listings.settled(listingID);
+		return current | CLOSED;
+	}
 
+	/**
+	 * Called by the expiry wheel once a listing's deadline has passed.
+	 */
+	void expire(int listingID)
+	{
+		Item item = listings.item(listingID);
+		//Already closed and settled by a bidder
+		if (item == null)
+			return;
+		//The wheel's clock may run slightly ahead of the item's
+		if (item.biddingOpen())
+			expiryWheel.schedule(listingID, System.currentTimeMillis() + 1);
+		else
+			closeListing(item);
+	}
 
-		//Check if the bidder is the winner
-		if (!bidderName.equals(currentBidder))
-			return null;
+	/**
+	 * @return True if the listing's bidding time has run out but nothing has
+	 * closed it yet, so the next <code>checkBidStatus</code> would close it
+	 */
+	boolean awaitingClose(int listingID)
+	{
+		Item item = listings.item(listingID);
+		return item != null && !item.biddingOpen() && (listings.bid(listingID) & CLOSED) == 0;
+	}
 
-		if (amount < highestBids.get(listingID)) {
-			synchronized (bidderLock) {
-				blacklist.add(bidderName);
-			}
-			synchronized (itemLock) {
-				for (Item i : itemsUpForBidding) {
-					if (i.biddingOpen()) {
-						boolean replaced = highestBidders.replace(i.listingID(), bidderName, null);
-						if (replaced)
-							highestBids.replace(i.listingID(), i.lowestBiddingPrice());
-					}
+	/**
+	 * Stops the server's background expiry thread and closes its journal, if
+	 * any.  Listings that close after this are only cleaned up when a bidder
+	 * checks on them.
+	 * @throws UncheckedIOException If the journal cannot be closed, or a
+	 * background checkpoint failed and <code>checkpoint</code> has not thrown it
+	 */
+	public void shutdown()
+	{
+		expiryWheel.stop();
+
+		synchronized (checkpointLock) {
+			//Checkpoints only touch files while holding checkpointLock, so this cannot interrupt one
+			if (checkpointer != null)
+				checkpointer.interrupt();
+
+			Journal journal = this.journal;
+			if (journal != null) {
+				this.journal = null;
+				try {
+					journal.close();
+				}
+				catch (IOException e) {
+					throw new UncheckedIOException(e);
 				}
 			}
-
-			throw new InsufficientFundsException();
 		}
 
+		IOException failure = takeCheckpointFailure();
+		if (failure != null)
+			throw new UncheckedIOException(failure);
+	}
+
+	/**
+	 * How much the server's locks have been used so far: itemLock, bidderLock,
+	 * the listing locks (together) and instanceLock, in that order.  Every
+	 * acquisition is counted; wait and hold times are measured on about one in
+	 * <code>LockStats.SAMPLE_EVERY</code> of them, which keeps the cost low enough
+	 * to leave on.  The LOCK_FREE engine only takes the listing locks for proxy
+	 * bids, and bidderLock never.
+	 * @return The usage of each lock
+	 */
+	public List<LockUsage> lockUsage()
+	{
+		return Arrays.asList(itemLockStats.usage("itemLock"), bidderLockStats.usage("bidderLock"),
+				listingLockStats.usage("listingLocks"), instanceLockStats.usage("instanceLock"));
+	}
+
+	/**
+	 * Call counts and latencies of the server's methods.  The server does not
+	 * time its own methods; wrap it in a <code>MeteredAuctionServer</code> to have
+	 * them timed.
+	 * @return The usage of each method, or an empty list if they are not timed
+	 */
+	public List<MethodUsage> methodUsage()
+	{
+		return new ArrayList<MethodUsage>();
+	}
+
+	/**
+	 * Moves a listing's price entry after its bid word changed from one price to
+	 * another.  Racing bids can apply their moves out of order and remove the
+	 * entry for the current price, so the bid word is checked afterwards.
+	 */
+	private void repriced(int listingID, int oldPrice, int newPrice)
+	{
+		index.repriced(listingID, oldPrice, newPrice);
+		indexCurrentPrice(listingID);
+	}
+
+	/**
+	 * Puts back the price entry of an open listing's current price.  Every
+	 * removal of a price entry is followed by this, which reads the bid word
+	 * after the removal, so the last one to run always leaves the current
+	 * price in the index.
+	 */
+	private void indexCurrentPrice(int listingID)
+	{
+		long current = listings.bid(listingID);
+		if ((current & CLOSED) == 0)
+			index.priced(listingID, amountOf(current));
+	}
+
+	/**
+	 * Replaces a listing's bid word if it is still <code>expect</code>,
+	 * journaling the change.  Every change to a bid word goes through here.
+	 */
+	private boolean casBid(int listingID, long expect, long update)
+	{
+		Journal journal = this.journal;
+		if (journal != null)
+			return journal.bid(listings, listingID, expect, update);
+		return listings.compareAndSetBid(listingID, expect, update);
+	}
+
+	/**
+	 * Sets a listing's proxy bid, journaling it.  The caller holds the
+	 * listing's stripe lock.
+	 */
+	private void setProxy(int listingID, long proxy)
+	{
+		listings.setProxy(listingID, proxy);
+
+		Journal journal = this.journal;
+		if (journal != null)
+			journal.proxy(listingID, proxy);
+	}
+
+	/**
+	 * Waits until the journal holds everything the calling thread has changed,
+	 * if the server is journaled.  Called once a public method has made its
+	 * changes and released its locks, so concurrent callers share one disk write.
+	 */
+	private void commit()
+	{
+		Journal journal = this.journal;
+		if (journal != null)
+			journal.sync();
+	}
+
+	/**
+	 * Recovers the server from a journal and keeps journaling to it from then
+	 * on, without periodic checkpoints.
+	 * @see #openJournal(File, long)
+	 */
+	public void openJournal(File file) throws IOException
+	{
+		openJournal(file, 0);
+	}
+
+	/**
+	 * Recovers the server from a journal and keeps journaling to it from then
+	 * on.  Every change is written ahead to the journal, and each method that
+	 * changes the server returns only once its changes are on disk; changes made
+	 * by concurrent callers are forced to disk together.  Other callers can see a
+	 * change before it is on disk, so a crash may lose a change that another
+	 * call saw but was not the one to make, such as a bid that caused another
+	 * bid to fail.  If the journal exists,
+	 * the participants, listings, bids, payments and blacklistings recorded in it
+	 * are restored first; listings whose bidding time ran out while the server
+	 * was down close as soon as the server starts.  Must be called on a server
+	 * that has not been used yet, before any other thread uses it.
+	 *
+	 * Recovery starts from the latest checkpoint, kept next to the journal in
+	 * <code>file.checkpoint</code>, and only replays the journal written since.
+	 * A checkpoint is taken in the background right after recovery and then every
+	 * <code>checkpointIntervalMs</code>, or whenever <code>checkpoint</code> is called.
+	 * A background checkpoint that fails is tried again at the next interval,
+	 * and the failure is thrown by the next call to <code>checkpoint</code> or
+	 * <code>shutdown</code>.
+	 * @param file The journal file, created if it does not exist
+	 * @param checkpointIntervalMs Time between background checkpoints, or 0 for none
+	 * @throws IOException If the journal cannot be read or opened
+	 * @throws IllegalStateException If the server has already been used or journaled
+	 */
+	public void openJournal(File file, long checkpointIntervalMs) throws IOException
+	{
+		if (journal != null || lastListingID >= 0 || participants.exists(0))
+			throw new IllegalStateException("Journal must be opened on an unused server");
+
+		recover(file, checkpointIntervalMs, true);
+	}
+
+	/**
+	 * Does the work of <code>openJournal</code>.  A <code>ShardedAuctionServer</code>
+	 * calls it for each of its shards, of which only the first journals the
+	 * participants they share; that shard must be recovered first.
+	 * @param journalParticipants True to journal participants as they register
+	 */
+	void recover(File file, long checkpointIntervalMs, boolean journalParticipants) throws IOException
+	{
+		final int[] collected = new int[1];
+		Journal.Replayer replayer = new Journal.Replayer() {
+			public void participant(int participantID, String name)
+			{
+				participants.register(name);
+			}
+
+			public void listing(int listingID, int sellerID, String itemName, int lowestBiddingPrice,
+					int biddingDurationMs, long closesAtMs)
+			{
+				//Already restored from the checkpoint
+				if (listings.exists(listingID))
+					return;
+
+				long deadline = CoarseClock.preciseNanoTime() + (closesAtMs - System.currentTimeMillis()) * 1000000L;
+				listings.add(new Item(participants.name(sellerID), itemName, listingID, lowestBiddingPrice, biddingDurationMs, deadline),
+						bidWord(lowestBiddingPrice, NO_BIDDER));
+				lastListingID = listingID;
+			}
+
+			public void bid(int listingID, long expect, long update)
+			{
+				listings.compareAndSetBid(listingID, expect, update);
+			}
+
+			public void proxy(int listingID, long proxy)
+			{
+				listings.setProxy(listingID, proxy);
+			}
+
+			public void blacklist(int participantID)
+			{
+				participants.blacklist(participantID);
+			}
+
+			public void payment(int listingID, int amount)
+			{
+				collected[0] += amount;
+			}
+
+			public void restore(int listingID, long bid)
+			{
+				listings.compareAndSetBid(listingID, listings.bid(listingID), bid);
+			}
+
+			public void settled(int listingID, long bid)
+			{
+				listings.addSettled(listingID, bid);
+				lastListingID = listingID;
+			}
+
+			public void revenue(int revenue)
+			{
+				collected[0] += revenue;
+			}
+		};
+
+		File checkpointFile = new File(file.getPath() + ".checkpoint");
+		File nextSegmentFile = new File(file.getPath() + ".next");
+		long restored = Checkpoint.read(checkpointFile, replayer);
+		long replayed = Journal.replay(file, restored, replayer);
+		//A checkpoint may have stopped after rotating the journal
+		long rotated = Journal.replay(nextSegmentFile, restored, replayer);
+
+		//Rebuild everything that follows from the listings' bid words
+		ItemSnapshot open = ItemSnapshot.EMPTY;
+		int sold = 0, uncollected = 0;
+		for (int listingID = Math.floorMod(lastListingID, listingIDStride); listingID <= lastListingID; listingID += listingIDStride) {
+			Item item = listings.item(listingID);
+			long current = listings.bid(listingID);
+			int bidderID = bidderOf(current);
+			if ((current & CLOSED) != 0) {
+				if (bidderID == NO_BIDDER || (current & SOLD) != 0)
+					listings.settled(listingID);
+				if (bidderID == NO_BIDDER)
+					continue;
+				if ((current & SOLD) != 0)
+					sold++;
+				else
+					uncollected += amountOf(current);
+				continue;
+			}
+
+			int sellerID = participants.id(item.seller());
+			open = open.with(item);
+			index.add(item, sellerID);
+			//The index lists the opening price; move it only if the listing has been bid up since
+			if (amountOf(current) != item.lowestBiddingPrice())
+				index.repriced(listingID, item.lowestBiddingPrice(), amountOf(current));
+			participants.addItems(sellerID, 1);
+			if (bidderID != NO_BIDDER) {
+				participants.addBids(bidderID, 1);
+				participants.held(bidderID).add(listingID);
+			}
+		}
 		synchronized (itemLock) {
-			itemsSold.add(listingID);
+			itemsUpForBidding = open;
 		}
+		//Shards count their active listings together
+		activeListings.addAndGet(open.size());
 		synchronized (instanceLock) {
-			uncollectedRevenue -= highestBids.get(listingID);
-			revenue += amount;
-			soldItemsCount++;
-			return item.name();
+			long stamp = statsStamp.writeLock();
+			soldItemsCount = sold;
+			uncollectedRevenue = uncollected;
+			revenue = collected[0];
+			statsStamp.unlockWrite(stamp);
+		}
+
+		if (journalParticipants) {
+			participants.onRegister((name, participantID) -> {
+				Journal journal = this.journal;
+				if (journal != null)
+					journal.participant(participantID, name);
+			});
+		}
+
+		//Start a new generation; the files recovered from stay until a checkpoint replaces them
+		long generation = Math.max(restored, Math.max(replayed, rotated)) + 1;
+		this.journalFile = file;
+		this.checkpointFile = checkpointFile;
+		this.nextSegmentFile = nextSegmentFile;
+		synchronized (checkpointLock) {
+			if (rotated != -1) {
+				//The next segment is about to be reused, so what was recovered from it must be checkpointed first
+				writeCheckpoint(generation, collected[0]);
+				journal = new Journal(Journal.createSegment(nextSegmentFile, generation), generation, listingLocks.length);
+				replaceJournalFile();
+			}
+			else {
+				journal = new Journal(Journal.createSegment(nextSegmentFile, generation), generation, listingLocks.length);
+				recoveredGeneration = generation;
+				recoveredRevenue = collected[0];
+			}
 		}
+
+		//Only start closing listings once the rest of the server is in place
+		long now = CoarseClock.preciseNanoTime();
+		for (Item item : open.items())
+			expiryWheel.schedule(item.listingID(), System.currentTimeMillis() + Math.max(0, (item.biddingDeadlineNanos() - now) / 1000000L));
+
+		checkpointer = new Thread(() -> checkpointEvery(checkpointIntervalMs), "auction-checkpoint");
+		checkpointer.setDaemon(true);
+		checkpointer.start();
+	}
+
+	/**
+	 * Writes a checkpoint of the server without stopping it, so that recovery
+	 * only has to replay the journal written after it.
+	 * @throws IOException If the checkpoint or the new journal segment cannot be
+	 * written, or a background checkpoint failed since the last call
+	 * @throws IllegalStateException If the server is not journaled
+	 */
+	public void checkpoint() throws IOException
+	{
+		IOException failure = takeCheckpointFailure();
+		if (failure != null)
+			throw failure;
+
+		checkpointNow();
+	}
+
+	private void checkpointNow() throws IOException
+	{
+		synchronized (checkpointLock) {
+			Journal journal = this.journal;
+			if (journal == null)
+				throw new IllegalStateException("Server is not journaled");
+
+			saveRecovered();
+
+			FileChannel segment = Journal.createSegment(nextSegmentFile, journal.generation() + 1);
+			//Payments are journaled while holding instanceLock, so the revenue matches the cut
+			long[] cut = instanceLockStats.locked(instanceLock, () -> new long[] {journal.rotate(segment), this.revenue});
+			writeCheckpoint(cut[0], (int) cut[1]);
+			replaceJournalFile();
+		}
+	}
+
+	/**
+	 * Writes the checkpoint left over from recovery, if it has not been written yet.
+	 */
+	private void saveRecovered() throws IOException
+	{
+		synchronized (checkpointLock) {
+			if (recoveredGeneration == -1 || journal == null)
+				return;
+			writeCheckpoint(recoveredGeneration, recoveredRevenue);
+			replaceJournalFile();
+			recoveredGeneration = -1;
+		}
+	}
+
+	/**
+	 * Writes a checkpoint of everything journaled before the given generation.
+	 * The caller holds checkpointLock.
+	 */
+	private void writeCheckpoint(long generation, int revenue) throws IOException
+	{
+		int lastListingID = itemLockStats.locked(itemLock, () -> this.lastListingID);
+		Checkpoint.write(checkpointFile, generation, revenue, participants, listings, lastListingID, listingIDStride, this::proxyOf);
+	}
+
+	/**
+	 * Makes the segment rotated to the journal file, dropping the segment the
+	 * last checkpoint replaced.  The caller holds checkpointLock.
+	 */
+	private void replaceJournalFile() throws IOException
+	{
+		Files.move(nextSegmentFile.toPath(), journalFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private long proxyOf(int listingID)
+	{
+		//Closed listings no longer need their proxy bid, and settled ones have dropped it
+		if ((listings.bid(listingID) & (PROXY | CLOSED)) != PROXY)
+			return 0;
+
+		return listingLockStats.lockedLong(lockFor(listingID), () -> listings.proxy(listingID));
+	}
+
+	/**
+	 * @return The failure of a background checkpoint not thrown yet, or null
+	 */
+	private IOException takeCheckpointFailure()
+	{
+		synchronized (checkpointLock) {
+			IOException failure = checkpointFailure;
+			checkpointFailure = null;
+			return failure;
+		}
+	}
+
+	private void checkpointEvery(long intervalMs)
+	{
+		try {
+			saveRecovered();
+		}
+		catch (IOException e) {
+			checkpointFailure = e;
+		}
+
+		while (intervalMs > 0) {
+			try {
+				Thread.sleep(intervalMs);
+			}
+			catch (InterruptedException e) {
+				return;
+			}
+
+			try {
+				checkpointNow();
+			}
+			catch (IllegalStateException e) {
+				//Shut down
+				return;
+			}
+			catch (IOException e) {
+				checkpointFailure = e;
+			}
+		}
+	}
+
+	/**
+	 * Moves a listing from the previous highest bidder's held listings to the
+	 * new highest bidder's.
+	 * @param replaced The bid word the new highest bid replaced
+	 */
+	private void leadTaken(int bidderID, int listingID, long replaced)
+	{
+		int previous = bidderOf(replaced);
+		//Leave the listing alone if a later bid has already given it back to the previous bidder
+		if (previous != NO_BIDDER && bidderOf(listings.bid(listingID)) != previous)
+			participants.held(previous).remove(listingID);
+		participants.held(bidderID).add(listingID);
+	}
+
+	/**
+	 * Returns every open bid held by a blacklisted bidder to its opening price,
+	 * visiting only the listings on which the bidder holds the highest bid.  A
+	 * shard only cancels bids on its own listings, and returns once the
+	 * cancellations are journaled.
+	 */
+	void cancelBids(int bidderID)
+	{
+		Set<Integer> held = participants.held(bidderID);
+		for (int listingID : held) {
+			if (!listings.exists(listingID))
+				continue;
+			held.remove(listingID);
+			Item item = listings.item(listingID);
+			long current = listings.bid(listingID);
+			while ((current & CLOSED) == 0 && bidderOf(current) == bidderID) {
+				if (casBid(listingID, current, bidWord(item.lowestBiddingPrice(), NO_BIDDER))) {
+					releaseBidSlot(bidderID);
+					repriced(listingID, amountOf(current), item.lowestBiddingPrice());
+					break;
+				}
+				current = listings.bid(listingID);
+			}
+		}
+		commit();
+	}
+
+	private void releaseSellerSlot(int sellerID)
+	{
+		participants.addItems(sellerID, -1);
+	}
+
+	/**
+	 * Takes one of the bidder's bid slots.
+	 * @return False if the bidder is blacklisted or already has maxBidCount bids
+	 */
+	private boolean acquireBidSlot(int bidderID)
+	{
+		if (bidEngine == BidEngine.LOCK_FREE)
+			return takeBidSlot(bidderID);
+
+		return bidderLockStats.locked(bidderLock, () -> takeBidSlot(bidderID));
+	}
+
+	private void releaseBidSlot(int bidderID)
+	{
+		if (bidEngine == BidEngine.LOCK_FREE) {
+			participants.addBids(bidderID, -1);
+			return;
+		}
+
+		bidderLockStats.lockedRun(bidderLock, () -> participants.addBids(bidderID, -1));
+	}
+
+	/**
+	 * Takes one of the bidder's bid slots without locking.  The SYNCHRONIZED
+	 * engine calls this while holding bidderLock.
+	 */
+	private boolean takeBidSlot(int bidderID)
+	{
+		//Check if bidder is blacklisted
+		if (participants.blacklisted(bidderID))
+			return false;
+
+		//Check if bidder has too many active bids
+		int count;
+		do {
+			count = participants.bids(bidderID);
+			if (count >= maxBidCount)
+				return false;
+		} while (!participants.compareAndSetBids(bidderID, count, count + 1));
+		return true;
 	}
 }
@@ -0,0 +1,31 @@
+package cmsc433.p1;
+
+import java.util.List;
+
+/**
+ * Management interface through which <code>AuctionServerMonitor</code>
+ * publishes a server's statistics over JMX.
+ */
+public interface AuctionServerMXBean
+{
+	int getSoldItemsCount();
+
+	int getRevenue();
+
+	int getUncollectedRevenue();
+
+	/**
+	 * @see AuctionServer#stats()
+	 */
+	AuctionStats getStats();
+
+	/**
+	 * @see AuctionServer#lockUsage()
+	 */
+	List<LockUsage> getLockUsage();
+
+	/**
+	 * @see AuctionServer#methodUsage()
+	 */
+	List<MethodUsage> getMethodUsage();
+}
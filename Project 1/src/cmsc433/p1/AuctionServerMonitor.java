@@ -0,0 +1,81 @@
+package cmsc433.p1;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Publishes a server's statistics, lock usage and method usage as an MXBean
+ * named <code>cmsc433.p1:type=AuctionServer,name=...</code> in the platform
+ * MBean server, where JConsole and other JMX clients can read them.
+ */
+public class AuctionServerMonitor implements AuctionServerMXBean
+{
+	private final AuctionServer server;
+
+	private AuctionServerMonitor(AuctionServer server)
+	{
+		this.server = server;
+	}
+
+	/**
+	 * Registers an MXBean for the server.
+	 * @param server The server to publish
+	 * @param name Name telling the server apart from others in the same JVM
+	 * @return The name the MXBean was registered under
+	 * @throws JMException If the name is taken or not a valid object name
+	 */
+	public static ObjectName register(AuctionServer server, String name) throws JMException
+	{
+		ObjectName objectName = new ObjectName("cmsc433.p1:type=AuctionServer,name=" + ObjectName.quote(name));
+		ManagementFactory.getPlatformMBeanServer().registerMBean(new AuctionServerMonitor(server), objectName);
+		return objectName;
+	}
+
+	/**
+	 * Removes an MXBean registered by <code>register</code>.
+	 * @throws JMException If no such MXBean is registered
+	 */
+	public static void unregister(ObjectName objectName) throws JMException
+	{
+		ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+	}
+
+	@Override
+	public int getSoldItemsCount()
+	{
+		return server.stats().getSoldItemsCount();
+	}
+
+	@Override
+	public int getRevenue()
+	{
+		return server.stats().getRevenue();
+	}
+
+	@Override
+	public int getUncollectedRevenue()
+	{
+		return server.stats().getUncollectedRevenue();
+	}
+
+	@Override
+	public AuctionStats getStats()
+	{
+		return server.stats();
+	}
+
+	@Override
+	public List<LockUsage> getLockUsage()
+	{
+		return server.lockUsage();
+	}
+
+	@Override
+	public List<MethodUsage> getMethodUsage()
+	{
+		return server.methodUsage();
+	}
+}
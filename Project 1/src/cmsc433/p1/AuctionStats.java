@@ -0,0 +1,44 @@
+package cmsc433.p1;
+
+/**
+ * The server statistics as of one moment: every field comes from the same
+ * point between payments and closings, so for instance a payment is never
+ * counted in <code>revenue</code> but still in <code>uncollectedRevenue</code>.
+ *
+ * The getters follow the JavaBeans naming JMX needs to publish this through
+ * <code>AuctionServerMXBean</code>.
+ */
+public class AuctionStats
+{
+	private final int soldItemsCount;
+	private final int revenue;
+	private final int uncollectedRevenue;
+
+	AuctionStats(int soldItemsCount, int revenue, int uncollectedRevenue)
+	{
+		this.soldItemsCount = soldItemsCount;
+		this.revenue = revenue;
+		this.uncollectedRevenue = uncollectedRevenue;
+	}
+
+	public int getSoldItemsCount()
+	{
+		return this.soldItemsCount;
+	}
+
+	public int getRevenue()
+	{
+		return this.revenue;
+	}
+
+	public int getUncollectedRevenue()
+	{
+		return this.uncollectedRevenue;
+	}
+
+	@Override
+	public String toString()
+	{
+		return String.format("%d sold, revenue %d, uncollected %d", soldItemsCount, revenue, uncollectedRevenue);
+	}
+}
@@ -0,0 +1,22 @@
+package cmsc433.p1;
+
+/**
+ * Selects how <code>AuctionServer</code> places bids.
+ */
+public enum BidEngine
+{
+	/**
+	 * Bids are placed while holding the listing's stripe lock.  Bidder
+	 * counts live in <code>ParticipantTable</code>'s atomic arrays and are
+	 * reserved and given back while holding the bidder lock.
+	 */
+	SYNCHRONIZED,
+
+	/**
+	 * Bids are placed with a compare-and-set on the listing's packed
+	 * (amount, bidder) word, with bidder counts updated in
+	 * <code>ParticipantTable</code>'s atomic arrays by compare-and-set.
+	 * No monitor is taken on the bid path.
+	 */
+	LOCK_FREE
+}
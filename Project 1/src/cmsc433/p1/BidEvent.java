@@ -0,0 +1,60 @@
+package cmsc433.p1;
+
+/**
+ * A notification pushed by <code>AuctionServer</code> to a subscribed
+ * <code>Bidder</code> or <code>Seller</code>.
+ */
+public class BidEvent
+{
+	public enum Type
+	{
+		/**
+		 * Sent to a bidder whose highest bid was beaten; the amount is the bid
+		 * that was beaten.
+		 */
+		OUTBID,
+
+		/**
+		 * Sent to a bidder who won an item; the amount is the winning bid.
+		 */
+		WON,
+
+		/**
+		 * Sent to a seller when bidding on one of their items closes; the amount
+		 * is the winning bid, or -1 if nobody bid.
+		 */
+		CLOSED
+	}
+
+	private Type type;
+	private int listingID;
+	private int amount;
+
+	public BidEvent(Type type, int listingID, int amount)
+	{
+		this.type = type;
+		this.listingID = listingID;
+		this.amount = amount;
+	}
+
+	public Type type()
+	{
+		return this.type;
+	}
+
+	public int listingID()
+	{
+		return this.listingID;
+	}
+
+	public int amount()
+	{
+		return this.amount;
+	}
+
+	@Override
+	public String toString()
+	{
+		return this.type + " " + this.listingID + " at " + this.amount;
+	}
+}
@@ -0,0 +1,38 @@
+package cmsc433.p1;
+
+/**
+ * One bid in a batch passed to <code>AuctionServer.submitBids</code>.
+ */
+public class BidRequest
+{
+	private int bidderID;
+	private int listingID;
+	private int biddingAmount;
+
+	/**
+	 * @param bidderID Participant ID of the <code>Bidder</code>
+	 * @param listingID Unique ID of the <code>Item</code>
+	 * @param biddingAmount Total amount to bid
+	 */
+	public BidRequest(int bidderID, int listingID, int biddingAmount)
+	{
+		this.bidderID = bidderID;
+		this.listingID = listingID;
+		this.biddingAmount = biddingAmount;
+	}
+
+	public int bidderID()
+	{
+		return this.bidderID;
+	}
+
+	public int listingID()
+	{
+		return this.listingID;
+	}
+
+	public int biddingAmount()
+	{
+		return this.biddingAmount;
+	}
+}
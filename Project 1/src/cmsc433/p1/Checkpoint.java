@@ -0,0 +1,138 @@
+package cmsc433.p1;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.function.IntToLongFunction;
+
+/**
+ * Compact binary snapshot of an <code>AuctionServer</code>'s participants and
+ * listings, so that recovery only has to replay the journal written since.
+ *
+ * A checkpoint is taken while bidding goes on, so it is fuzzy: each bid word
+ * is read at some point after the journal was rotated to the checkpoint's
+ * generation.  Replaying that generation on top of it brings every listing up
+ * to date, since transitions the checkpoint already holds no longer apply.
+ */
+class Checkpoint
+{
+	private static final int MAGIC = 0x41554331; // "AUC1"
+
+	/**
+	 * Writes a checkpoint, replacing the previous one only once it is on disk.
+	 * @param generation Oldest journal generation that must be replayed on top of it
+	 * @param revenue Revenue collected by payments journaled before <code>generation</code>
+	 * @param lastListingID Highest listing ID to include
+	 * @param stride Distance between the listing IDs, which is the number of shards for a shard
+	 * @param proxies The proxy word of a listing, or 0 if it has no proxy bid
+	 */
+	static void write(File file, long generation, int revenue, ParticipantTable participants,
+			ListingTable listings, int lastListingID, int stride, IntToLongFunction proxies) throws IOException
+	{
+		File temp = new File(file.getPath() + ".tmp");
+		try (FileOutputStream stream = new FileOutputStream(temp)) {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+			out.writeInt(MAGIC);
+			out.writeLong(generation);
+			out.writeInt(revenue);
+
+			//Listings are read first, so every seller of a listing is among the participants
+			int participantCount = participants.count();
+			out.writeInt(participantCount);
+			for (int id = 0; id < participantCount; id++) {
+				writeString(out, participants.name(id));
+				out.writeBoolean(participants.blacklisted(id));
+			}
+
+			long nowMs = System.currentTimeMillis();
+			long nowNanos = CoarseClock.preciseNanoTime();
+			int firstListingID = Math.floorMod(lastListingID, stride);
+			out.writeInt(firstListingID);
+			out.writeInt(stride);
+			out.writeInt(lastListingID < firstListingID ? 0 : (lastListingID - firstListingID) / stride + 1);
+			for (int listingID = firstListingID; listingID <= lastListingID; listingID += stride) {
+				//Settled listings have dropped their item; their bid word is final
+				Item item = listings.item(listingID);
+				if (item == null) {
+					out.writeInt(-1);
+					out.writeLong(listings.bid(listingID));
+					continue;
+				}
+				out.writeInt(participants.id(item.seller()));
+				writeString(out, item.name());
+				out.writeInt(item.lowestBiddingPrice());
+				out.writeInt(item.biddingDurationMs());
+				out.writeLong(nowMs + (item.biddingDeadlineNanos() - nowNanos) / 1000000L);
+				out.writeLong(listings.bid(listingID));
+				out.writeLong(proxies.applyAsLong(listingID));
+			}
+			out.flush();
+			stream.getFD().sync();
+		}
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static void writeString(DataOutputStream out, String string) throws IOException
+	{
+		byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * Hands the contents of a checkpoint to a journal replayer.
+	 * @return The checkpoint's generation, or -1 if there is no checkpoint
+	 */
+	static long read(File file, Journal.Replayer replayer) throws IOException
+	{
+		if (!file.exists())
+			return -1;
+
+		ByteBuffer in;
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		try {
+			if (in.getInt() != MAGIC)
+				throw new IOException("Not a checkpoint: " + file);
+			long generation = in.getLong();
+			replayer.revenue(in.getInt());
+
+			int participantCount = in.getInt();
+			for (int id = 0; id < participantCount; id++) {
+				replayer.participant(id, Journal.string(in));
+				if (in.get() != 0)
+					replayer.blacklist(id);
+			}
+
+			int firstListingID = in.getInt();
+			int stride = in.getInt();
+			int listingCount = in.getInt();
+			for (int i = 0, listingID = firstListingID; i < listingCount; i++, listingID += stride) {
+				int sellerID = in.getInt();
+				if (sellerID == -1) {
+					replayer.settled(listingID, in.getLong());
+					continue;
+				}
+				replayer.listing(listingID, sellerID, Journal.string(in), in.getInt(), in.getInt(), in.getLong());
+				replayer.restore(listingID, in.getLong());
+				long proxy = in.getLong();
+				if (proxy != 0)
+					replayer.proxy(listingID, proxy);
+			}
+			return generation;
+		}
+		catch (BufferUnderflowException e) {
+			throw new IOException("Truncated checkpoint: " + file, e);
+		}
+	}
+}
@@ -0,0 +1,46 @@
+package cmsc433.p1;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates the threads that simulated <code>Sellers</code> and
+ * <code>Bidders</code> run on.
+ *
+ * Virtual threads are looked up reflectively so the project still builds and
+ * runs on JDKs that predate them; there, clients fall back to platform threads.
+ * The clients spend most of their time sleeping between calls, which a virtual
+ * thread does without holding a carrier thread, so hundreds of thousands of
+ * them can run at once.  None of the server's monitors are held across a sleep
+ * or a journal sync, so virtual threads are not pinned while they wait.
+ */
+class ClientThreads
+{
+	private ClientThreads()
+	{
+	}
+
+	/**
+	 * @return A factory of virtual threads, or null if this JDK has none
+	 */
+	static ThreadFactory virtual()
+	{
+		try {
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+			builder = builderType.getMethod("name", String.class, long.class).invoke(builder, "client-", 0L);
+			return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+		}
+		catch (ReflectiveOperationException e) {
+			//Missing before Java 21, and refused in Java 19 and 20 unless preview features are enabled
+			return null;
+		}
+	}
+
+	/**
+	 * @return A factory of ordinary platform threads
+	 */
+	static ThreadFactory platform()
+	{
+		return Thread::new;
+	}
+}
@@ -0,0 +1,69 @@
+package cmsc433.p1;
+
+/**
+ * A shared, cheap to read monotonic clock in <code>System.nanoTime</code>
+ * units.
+ *
+ * A daemon thread refreshes a volatile copy of <code>System.nanoTime</code>
+ * about once a millisecond, so reading the time is a single volatile read.
+ * The cached time lags the real time by up to a tick (longer if the ticker is
+ * not scheduled promptly), which is fine for deadlines measured in
+ * milliseconds.  If the ticker cannot run, readers fall back to calling
+ * <code>System.nanoTime</code> directly.
+ */
+final class CoarseClock
+{
+	private static final long UNSET = Long.MIN_VALUE;
+	private static final long TICK_MS = 1;
+
+	private static volatile long now = UNSET;
+
+	static {
+		Thread ticker = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				try {
+					while (true) {
+						now = System.nanoTime();
+						Thread.sleep(TICK_MS);
+					}
+				}
+				catch (InterruptedException e) {
+					//Fall back to the precise clock
+					now = UNSET;
+				}
+			}
+		}, "coarse-clock");
+		ticker.setDaemon(true);
+		try {
+			ticker.start();
+		}
+		catch (SecurityException | OutOfMemoryError e) {
+			//No ticker, every read uses the precise clock
+		}
+	}
+
+	private CoarseClock()
+	{
+	}
+
+	/**
+	 * @return The cached time in nanoseconds, or the precise time if the ticker
+	 * is not running
+	 */
+	static long nanoTime()
+	{
+		long time = now;
+		return time != UNSET ? time : System.nanoTime();
+	}
+
+	/**
+	 * @return The precise time in nanoseconds
+	 */
+	static long preciseNanoTime()
+	{
+		return System.nanoTime();
+	}
+}
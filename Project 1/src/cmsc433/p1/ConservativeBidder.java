@@ -1,6 +1,5 @@
 package cmsc433.p1;
 
-import java.util.ArrayList;
 import java.util.Hashtable;
 import java.util.List;
 import java.util.Random;
@@ -63,93 +62,98 @@ public class ConservativeBidder implements Bidder
 	@Override
 	public void run()
 	{
-		List<Item> activeBids = new ArrayList<Item>();
-		Hashtable<Item, Integer> activeBidPrices = new Hashtable<Item, Integer>();
+		int id = Retry.registerAndSubscribe(server, this.name());
+		// Our current bids by listing ID
+		Hashtable<Integer, Integer> activeBidPrices = new Hashtable<Integer, Integer>();
 		int sumActiveBids = 0;
 
-		for (int i = 0; (i < cycles && cash > 0) || activeBids.size() > 0; ++i)
+		for (int i = 0; (i < cycles && cash > 0) || activeBidPrices.size() > 0; ++i)
 		{
-			List<Item> items = server.getItems();
-			if (items.size() > this.mostItemsAvailable) { this.mostItemsAvailable = items.size(); }
+			int itemsAvailable = server.getItemSnapshot().size();
+			if (itemsAvailable > this.mostItemsAvailable) { this.mostItemsAvailable = itemsAvailable; }
 
-			while (items.size() > 0)
+			try
 			{
+				// Only consider items we could currently outbid
+				List<Item> items = server.itemsPricedAtMost(this.cash - sumActiveBids - 1, 0, Integer.MAX_VALUE);
 
-				int index = rand.nextInt(items.size());
+				while (items.size() > 0)
+				{
 
-				Item item = items.get(index);
-				items.remove(index);
+					int index = rand.nextInt(items.size());
 
-				int price = server.itemPrice(item.listingID());
-				if (price != -1 && price < this.cash  - sumActiveBids)
-				{
-					// The server should ensure thread safety: if the price
-					// has already increased, then this bid should be invalid.
-					boolean success = server.submitBid(this.name(), item.listingID(), price + 1);
+					Item item = items.get(index);
+					items.remove(index);
 
-					if (success)
+					int price = server.itemPrice(item.listingID());
+					if (price != -1 && price < this.cash  - sumActiveBids)
 					{
-						if (!activeBidPrices.containsKey(item))
-						{
-							activeBids.add(item);
-						}
-						else
+						// The server should ensure thread safety: if the price
+						// has already increased, then this bid should be invalid.
+						boolean success = server.submitBid(id, item.listingID(), price + 1);
+
+						if (success)
 						{
-							sumActiveBids -= activeBidPrices.get(item);
-						}
+							if (activeBidPrices.containsKey(item.listingID()))
+							{
+								sumActiveBids -= activeBidPrices.get(item.listingID());
+							}
 	
-						sumActiveBids += price + 1;
-						activeBidPrices.put(item, price + 1);
+							sumActiveBids += price + 1;
+							activeBidPrices.put(item.listingID(), price + 1);
+						}
+						break;
 					}
-					break;
-				}
 
-				continue;
+					continue;
+				}
+			}
+			catch (ThrottledException e)
+			{
+				// The server is busy: sit this cycle's bid out
 			}
 
-			List<Item> newActiveBids = new ArrayList<Item>();
-			Hashtable<Item, Integer> newActiveBidPrices = new Hashtable<Item, Integer>();
-			for (Item bid : activeBids)
+			// Find out what happened to our bids since the last cycle
+			for (BidEvent event : Retry.pollEvents(server, id))
 			{
-				switch (server.checkBidStatus(this.name(), bid.listingID()))
+				Integer bidPrice = activeBidPrices.get(event.listingID());
+				switch (event.type())
 				{
-				case 1:
+				case WON:
 					// Success
-					int finalPrice = activeBidPrices.get(bid);
+					int finalPrice = event.amount();
 					int cashToPay = this.cash >= finalPrice ? finalPrice : this.cash;
 					
 					try {
-						String itemWon = server.payForItem(this.name(), bid.listingID(), cashToPay);
+						String itemWon = Retry.untilAdmitted(() -> server.payForItem(id, event.listingID(), cashToPay));
 						System.out.println(this.name() + " won " + itemWon + "!");
 					} catch (InsufficientFundsException e){
 						System.out.println(this.name() + " was unable to pay up and is retiring in disgrace.");
 						return;
 					}
 					this.cash -= cashToPay;
-					sumActiveBids -= cashToPay;
-
-					break;
+					if (bidPrice != null)
+					{
+						sumActiveBids -= bidPrice;
+						activeBidPrices.remove(event.listingID());
+					}
 
-				case 2:
-					// Open
-					newActiveBids.add(bid);
-					newActiveBidPrices.put(bid, activeBidPrices.get(bid));
 					break;
 
-				case 3:
-					// Failed
-					sumActiveBids -= activeBidPrices.get(bid);
+				case OUTBID:
+					// Failed, unless the event is for an earlier, lower bid of ours
+					if (bidPrice != null && bidPrice == event.amount())
+					{
+						sumActiveBids -= bidPrice;
+						activeBidPrices.remove(event.listingID());
+					}
 					break;
 
 				default:
-					// Error
 					break;
 				}
 			}
 
-			activeBids = newActiveBids;
-			activeBidPrices = newActiveBidPrices;
-
 			try
 			{
 				Thread.sleep((long)rand.nextInt(this.maxSleepTimeMs));
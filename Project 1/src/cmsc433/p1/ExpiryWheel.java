@@ -0,0 +1,150 @@
+package cmsc433.p1;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Hashed timer wheel that reports listings whose bidding deadline has passed.
+ *
+ * Deadlines are hashed by tick into a fixed ring of buckets, so scheduling is
+ * constant time and each tick only looks at one bucket.  Deadlines further away
+ * than one turn of the wheel stay in their bucket until their turn comes round.
+ * A daemon thread advances the wheel and hands expired listing IDs to the
+ * callback outside of any bucket lock.  An exception from the callback is
+ * reported to the thread's uncaught exception handler and the wheel goes on
+ * with the next listing.
+ */
+class ExpiryWheel implements Runnable
+{
+	private static class Bucket
+	{
+		int size;
+		int[] listingIDs = new int[8];
+		long[] deadlines = new long[8];
+		// Last tick this bucket was drained for; a listing scheduled for it or earlier would wait a whole turn.
+		long drainedTick = -1;
+	}
+
+	private final long tickMs;
+	private final Bucket[] buckets;
+	private final IntConsumer expired;
+
+	private final long startMs = System.currentTimeMillis();
+	private volatile long nextTick;
+
+	private Thread thread;
+	private volatile boolean running;
+
+	/**
+	 * @param tickMs Resolution of the wheel in milliseconds
+	 * @param bucketCount Number of buckets in one turn of the wheel
+	 * @param expired Called with each listing ID once its deadline has passed
+	 */
+	ExpiryWheel(long tickMs, int bucketCount, IntConsumer expired)
+	{
+		this.tickMs = tickMs;
+		this.buckets = new Bucket[bucketCount];
+		for (int i = 0; i < bucketCount; i++)
+			buckets[i] = new Bucket();
+		this.expired = expired;
+	}
+
+	/**
+	 * Schedules a listing to be reported once the deadline has passed, starting
+	 * the wheel's thread on first use.
+	 * @param deadlineMs Deadline in <code>System.currentTimeMillis</code> time
+	 */
+	void schedule(int listingID, long deadlineMs)
+	{
+		//Round up so a listing is never reported before its deadline, and never
+		//put it behind the wheel where it would wait a whole turn
+		long tick = Math.max((deadlineMs - startMs + tickMs - 1) / tickMs, nextTick);
+		while (true) {
+			Bucket bucket = buckets[(int) (tick % buckets.length)];
+			synchronized (bucket) {
+				//The wheel may have drained this tick since nextTick was read; try the tick after it
+				if (bucket.drainedTick >= tick) {
+					tick = bucket.drainedTick + 1;
+					continue;
+				}
+				if (bucket.size == bucket.listingIDs.length) {
+					bucket.listingIDs = Arrays.copyOf(bucket.listingIDs, bucket.size * 2);
+					bucket.deadlines = Arrays.copyOf(bucket.deadlines, bucket.size * 2);
+				}
+				bucket.listingIDs[bucket.size] = listingID;
+				bucket.deadlines[bucket.size] = deadlineMs;
+				bucket.size++;
+			}
+			break;
+		}
+		start();
+	}
+
+	private synchronized void start()
+	{
+		if (thread != null)
+			return;
+		running = true;
+		nextTick = (System.currentTimeMillis() - startMs) / tickMs;
+		thread = new Thread(this, "auction-expiry");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stops the wheel's thread.  Listings still scheduled are not reported.
+	 */
+	synchronized void stop()
+	{
+		running = false;
+		if (thread != null)
+			thread.interrupt();
+	}
+
+	@Override
+	public void run()
+	{
+		int[] due = new int[8];
+		while (running) {
+			long now = System.currentTimeMillis();
+			//Catch up on every tick that has passed, one bucket at a time
+			while (nextTick * tickMs + startMs <= now) {
+				Bucket bucket = buckets[(int) (nextTick % buckets.length)];
+				int dueCount = 0;
+				synchronized (bucket) {
+					int kept = 0;
+					for (int i = 0; i < bucket.size; i++) {
+						if (bucket.deadlines[i] <= now) {
+							if (dueCount == due.length)
+								due = Arrays.copyOf(due, dueCount * 2);
+							due[dueCount++] = bucket.listingIDs[i];
+						}
+						else {
+							bucket.listingIDs[kept] = bucket.listingIDs[i];
+							bucket.deadlines[kept] = bucket.deadlines[i];
+							kept++;
+						}
+					}
+					bucket.size = kept;
+					bucket.drainedTick = nextTick;
+				}
+				for (int i = 0; i < dueCount; i++) {
+					try {
+						expired.accept(due[i]);
+					}
+					catch (RuntimeException e) {
+						Thread.currentThread().getUncaughtExceptionHandler().uncaughtException(Thread.currentThread(), e);
+					}
+				}
+				nextTick++;
+			}
+
+			try {
+				Thread.sleep(Math.max(1, nextTick * tickMs + startMs - System.currentTimeMillis()));
+			}
+			catch (InterruptedException e) {
+				return;
+			}
+		}
+	}
+}
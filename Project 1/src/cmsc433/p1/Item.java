@@ -1,7 +1,5 @@
 package cmsc433.p1;
 
-import java.util.Date;
-
 
 /**
  * Stores the initial information for an item submitted for bidding.
@@ -15,7 +13,8 @@ public class Item
     private int lowestBiddingPrice;
     private int biddingDurationMs;
     
-    private Date biddingStart;
+    // When bidding closes, in CoarseClock time.
+    private long biddingDeadlineNanos;
     
 	public Item(String seller, String name, int listingID, int lowestBiddingPrice, int biddingDurationMs)
 	{
@@ -25,7 +24,21 @@ public class Item
 		this.lowestBiddingPrice = lowestBiddingPrice;
 		this.biddingDurationMs = biddingDurationMs;
 		
-		this.biddingStart = new Date();
+		this.biddingDeadlineNanos = CoarseClock.preciseNanoTime() + biddingDurationMs * 1000000L;
+	}
+	
+	/**
+	 * Recreates an item whose bidding closes at the given
+	 * <code>CoarseClock.nanoTime</code> time.
+	 */
+	Item(String seller, String name, int listingID, int lowestBiddingPrice, int biddingDurationMs, long biddingDeadlineNanos)
+	{
+	    this.seller = seller;
+		this.name = name;
+		this.listingID = listingID;
+		this.lowestBiddingPrice = lowestBiddingPrice;
+		this.biddingDurationMs = biddingDurationMs;
+		this.biddingDeadlineNanos = biddingDeadlineNanos;
 	}
 	
 	public String seller()
@@ -53,6 +66,14 @@ public class Item
 	    return this.biddingDurationMs;
 	}
 	
+	/**
+	 * Returns when bidding closes, in <code>CoarseClock.nanoTime</code> time.
+	 */
+	long biddingDeadlineNanos()
+	{
+	    return this.biddingDeadlineNanos;
+	}
+	
 	/**
 	 * Returns true if the bidding is open (active) for the current item.
 	 * 
@@ -62,8 +83,7 @@ public class Item
 	 */
 	public boolean biddingOpen()
 	{
-	    Date now = new Date();
-	    return (now.getTime() - this.biddingStart.getTime()) / 1 < this.biddingDurationMs;
+	    return CoarseClock.nanoTime() - this.biddingDeadlineNanos < 0;
 	}
 	
 	@Override
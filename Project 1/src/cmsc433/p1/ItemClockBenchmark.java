@@ -0,0 +1,87 @@
+package cmsc433.p1;
+
+import java.lang.management.ManagementFactory;
+import java.util.Date;
+
+/**
+ * Microbenchmark comparing the cost of <code>Item.biddingOpen</code> against
+ * the previous implementation, which allocated a <code>Date</code> per call.
+ * Run with no arguments; prints nanoseconds and bytes allocated per call.
+ */
+public class ItemClockBenchmark
+{
+	private static final int WARMUP_ROUNDS = 5;
+	private static final int ROUNDS = 5;
+	private static final int CALLS_PER_ROUND = 20000000;
+
+	private interface OpenCheck
+	{
+		boolean biddingOpen();
+	}
+
+	public static void main(String[] args)
+	{
+		final Item item = new Item("Seller", "Item", 0, 0, Integer.MAX_VALUE);
+
+		//The previous biddingOpen, reproduced for comparison
+		final Date biddingStart = new Date();
+		final int biddingDurationMs = Integer.MAX_VALUE;
+		OpenCheck before = new OpenCheck()
+		{
+			@Override
+			public boolean biddingOpen()
+			{
+				Date now = new Date();
+				return (now.getTime() - biddingStart.getTime()) / 1 < biddingDurationMs;
+			}
+		};
+
+		OpenCheck after = new OpenCheck()
+		{
+			@Override
+			public boolean biddingOpen()
+			{
+				return item.biddingOpen();
+			}
+		};
+
+		measure("before (new Date per call)", before);
+		measure("after (coarse clock)      ", after);
+	}
+
+	private static void measure(String label, OpenCheck check)
+	{
+		for (int i = 0; i < WARMUP_ROUNDS; i++)
+			run(check);
+
+		long allocated = allocatedBytes();
+		long start = System.nanoTime();
+		int open = 0;
+		for (int i = 0; i < ROUNDS; i++)
+			open += run(check);
+		long elapsed = System.nanoTime() - start;
+		allocated = allocatedBytes() - allocated;
+
+		double calls = (double) ROUNDS * CALLS_PER_ROUND;
+		System.out.printf("%s %6.2f ns/call %6.2f bytes/call (%d open)%n",
+				label, elapsed / calls, allocated / calls, open);
+	}
+
+	private static int run(OpenCheck check)
+	{
+		int open = 0;
+		for (int i = 0; i < CALLS_PER_ROUND; i++) {
+			if (check.biddingOpen())
+				open++;
+		}
+		return open;
+	}
+
+	private static long allocatedBytes()
+	{
+		java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (threads instanceof com.sun.management.ThreadMXBean)
+			return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+		return 0;
+	}
+}
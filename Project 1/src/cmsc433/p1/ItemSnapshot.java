@@ -0,0 +1,105 @@
+package cmsc433.p1;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An immutable view of the <code>Items</code> up for bidding at one point in
+ * time.  Every change to the set of active items publishes a new snapshot with
+ * a higher version, so two snapshots with the same version hold the same items.
+ */
+public final class ItemSnapshot
+{
+	static final ItemSnapshot EMPTY = new ItemSnapshot(0, new Item[0]);
+
+	private final long version;
+	private final Item[] items;
+	private final List<Item> itemList;
+
+	private ItemSnapshot(long version, Item[] items)
+	{
+		this.version = version;
+		this.items = items;
+		this.itemList = Collections.unmodifiableList(Arrays.asList(items));
+	}
+
+	/**
+	 * @return The version of the active item set this snapshot was taken from
+	 */
+	public long version()
+	{
+		return this.version;
+	}
+
+	/**
+	 * @return The active items, as an unmodifiable <code>List</code>
+	 */
+	public List<Item> items()
+	{
+		return this.itemList;
+	}
+
+	public int size()
+	{
+		return this.items.length;
+	}
+
+	/**
+	 * @return A snapshot of the items in all the given snapshots, whose version
+	 * is the sum of theirs, so it changes whenever one of them does
+	 */
+	static ItemSnapshot concat(ItemSnapshot[] parts)
+	{
+		long version = 0;
+		int size = 0;
+		for (ItemSnapshot part : parts) {
+			version += part.version;
+			size += part.items.length;
+		}
+
+		Item[] items = new Item[size];
+		int at = 0;
+		for (ItemSnapshot part : parts) {
+			System.arraycopy(part.items, 0, items, at, part.items.length);
+			at += part.items.length;
+		}
+		return new ItemSnapshot(version, items);
+	}
+
+	/**
+	 * @return A snapshot of the given items with the given version, such as one
+	 * received from a <code>NetworkAuctionServer</code>
+	 */
+	static ItemSnapshot of(long version, List<Item> items)
+	{
+		return new ItemSnapshot(version, items.toArray(new Item[items.size()]));
+	}
+
+	/**
+	 * @return A new snapshot with the item added
+	 */
+	ItemSnapshot with(Item item)
+	{
+		Item[] added = Arrays.copyOf(items, items.length + 1);
+		added[items.length] = item;
+		return new ItemSnapshot(version + 1, added);
+	}
+
+	/**
+	 * @return A new snapshot without the item, or this snapshot if it does not
+	 * contain it
+	 */
+	ItemSnapshot without(Item item)
+	{
+		for (int i = 0; i < items.length; i++) {
+			if (items[i].equals(item)) {
+				Item[] removed = new Item[items.length - 1];
+				System.arraycopy(items, 0, removed, 0, i);
+				System.arraycopy(items, i + 1, removed, i, removed.length - i);
+				return new ItemSnapshot(version + 1, removed);
+			}
+		}
+		return this;
+	}
+}
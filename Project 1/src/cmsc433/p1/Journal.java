@@ -0,0 +1,583 @@
+package cmsc433.p1;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Append-only write-ahead journal of the changes made to an
+ * <code>AuctionServer</code>, with group commit.
+ *
+ * Threads append records to in-memory buffers: bids and proxies to one of
+ * several buffers picked by listing ID, everything else to a shared one.  A
+ * single writer thread repeatedly takes everything appended so far, writes it
+ * to the file and forces it to disk, so records that arrive while one batch is
+ * being forced are made durable together by the next one.  <code>sync</code>
+ * asks for and waits until the batch holding the calling thread's records is
+ * durable.
+ *
+ * Listing state is journaled as bid word transitions (the word replaced and
+ * the word that replaced it) rather than as operations, so replay does not
+ * re-run any auction logic.  <code>bid</code> swaps the word and appends the
+ * transition under the lock of the listing's buffer, so each listing's
+ * transitions are journaled in the order they were made while bids on
+ * listings in other buffers go ahead in parallel.  Replaying them in that
+ * order is what keeps a word that comes back, such as a cancelled bid's
+ * opening price, from being mistaken for an earlier occurrence.
+ *
+ * A change is visible to other threads as soon as it is appended, before it
+ * is on disk.  A caller is only told its change succeeded once the change and
+ * every change before it are on disk, but a crash can still lose a change
+ * that another caller merely saw, for example one that made its bid too low.
+ *
+ * The journal is written in numbered segments.  <code>rotate</code> starts a
+ * new segment so that a checkpoint can replace the ones before it.
+ */
+class Journal
+{
+	private static final int MAGIC = 0x41554a33; // "AUJ3"
+
+	private static final byte PARTICIPANT = 1;
+	private static final byte LISTING = 2;
+	private static final byte BID = 3;
+	private static final byte PROXY = 4;
+	private static final byte BLACKLIST = 5;
+	private static final byte PAYMENT = 6;
+
+	/**
+	 * Receives the records of a journal during replay.
+	 */
+	interface Replayer
+	{
+		void participant(int participantID, String name);
+
+		void listing(int listingID, int sellerID, String itemName, int lowestBiddingPrice,
+				int biddingDurationMs, long closesAtMs);
+
+		/**
+		 * Replaces the listing's bid word if it is still <code>expect</code>.
+		 */
+		void bid(int listingID, long expect, long update);
+
+		void proxy(int listingID, long proxy);
+
+		void blacklist(int participantID);
+
+		void payment(int listingID, int amount);
+
+		/**
+		 * Sets a listing's bid word outright; only used by checkpoints.
+		 */
+		void restore(int listingID, long bid);
+
+		/**
+		 * Sets the revenue collected before the checkpoint; only used by checkpoints.
+		 */
+		void revenue(int revenue);
+
+		/**
+		 * Adds a listing that was settled before the checkpoint, of which only
+		 * the final bid word is kept; only used by checkpoints.
+		 */
+		void settled(int listingID, long bid);
+	}
+
+	/**
+	 * Records waiting for the writer.  Each buffer has its own lock, so threads
+	 * appending to different buffers do not wait for each other.
+	 */
+	private static final class Buffer
+	{
+		private ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		private DataOutputStream out = new DataOutputStream(bytes);
+		// The batch the records appended now will be written in.
+		private long batch = 1;
+		private boolean closed;
+
+		/**
+		 * Takes the records appended so far.  The caller holds the buffer's lock.
+		 * @param endBatch True to count records appended afterwards towards the next batch
+		 */
+		byte[] take(boolean endBatch)
+		{
+			byte[] taken = bytes.toByteArray();
+			bytes = new ByteArrayOutputStream(Math.max(32, taken.length));
+			out = new DataOutputStream(bytes);
+			if (endBatch)
+				batch++;
+			return taken;
+		}
+	}
+
+	// Participants, listings, blacklistings and payments.
+	private final Buffer shared = new Buffer();
+	// Bid and proxy words, by listing, so that each listing's records stay in the order they were made.
+	private final Buffer[] listingBuffers;
+
+	// The segment being written, its generation, and the one to switch to once the records
+	// appended before the last rotate are on disk.
+	private FileChannel channel;
+	private long generation;
+	private FileChannel nextChannel;
+	private byte[] beforeRotation;
+
+	// Guards the writer's state below; the buffers have locks of their own.
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition requested = lock.newCondition();
+	private final Condition forced = lock.newCondition();
+	// The latest batch a thread is waiting for, the next batch to write and the last one on disk.
+	private long requestedBatch = 0;
+	private long nextBatch = 1;
+	private long durableBatch = 0;
+	private IOException failure;
+	private boolean closing;
+
+	// The latest batch holding a record appended by each thread.
+	private final ThreadLocal<long[]> lastAppended = ThreadLocal.withInitial(() -> new long[1]);
+
+	private final Thread writer;
+
+	/**
+	 * Starts a journal in a new segment.
+	 * @param segment The segment, as returned by <code>createSegment</code>
+	 * @param generation The segment's generation
+	 * @param stripes Number of buffers bid and proxy records are spread over, at least 1
+	 */
+	Journal(FileChannel segment, long generation, int stripes)
+	{
+		this.channel = segment;
+		this.generation = generation;
+		this.listingBuffers = new Buffer[stripes];
+		for (int i = 0; i < stripes; i++)
+			listingBuffers[i] = new Buffer();
+
+		this.writer = new Thread(this::writeBatches, "auction-journal");
+		this.writer.setDaemon(true);
+		this.writer.start();
+	}
+
+	/**
+	 * Creates an empty segment file, replacing any existing one.
+	 */
+	static FileChannel createSegment(File file, long generation) throws IOException
+	{
+		FileChannel segment = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		segment.write(ByteBuffer.allocate(12).putInt(MAGIC).putLong(generation).flip());
+		segment.force(true);
+		return segment;
+	}
+
+	/**
+	 * @return Generation of the segment records are currently appended to
+	 */
+	long generation()
+	{
+		lock.lock();
+		try {
+			return generation;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Sends every record appended after this call to a new segment with the
+	 * next generation.  Records already appended stay in the current segment.
+	 * The caller must keep payments from being appended meanwhile, so that the
+	 * revenue it reads matches the cut.
+	 * @param segment The new segment, as returned by <code>createSegment</code>
+	 * @return The new segment's generation
+	 */
+	long rotate(FileChannel segment)
+	{
+		lock.lock();
+		try {
+			if (nextChannel != null)
+				throw new IllegalStateException("Rotation already in progress");
+			//The records cut off stay in the batch they were appended for, which writes them first
+			beforeRotation = takeAll(false);
+			nextChannel = segment;
+			requested.signal();
+			return ++generation;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	void participant(int participantID, String name)
+	{
+		byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+		synchronized (shared) {
+			DataOutputStream out = open(shared);
+			try {
+				out.writeByte(PARTICIPANT);
+				out.writeInt(participantID);
+				out.writeInt(bytes.length);
+				out.write(bytes);
+			}
+			catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			appended(shared);
+		}
+	}
+
+	void listing(int listingID, int sellerID, String itemName, int lowestBiddingPrice, int biddingDurationMs, long closesAtMs)
+	{
+		byte[] bytes = itemName.getBytes(StandardCharsets.UTF_8);
+		synchronized (shared) {
+			DataOutputStream out = open(shared);
+			try {
+				out.writeByte(LISTING);
+				out.writeInt(listingID);
+				out.writeInt(sellerID);
+				out.writeInt(bytes.length);
+				out.write(bytes);
+				out.writeInt(lowestBiddingPrice);
+				out.writeInt(biddingDurationMs);
+				out.writeLong(closesAtMs);
+			}
+			catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			appended(shared);
+		}
+	}
+
+	/**
+	 * Replaces a listing's bid word if it is still <code>expect</code> and
+	 * appends the transition, both under the lock of the listing's buffer.
+	 * @return False if the word was not <code>expect</code>
+	 */
+	boolean bid(ListingTable listings, int listingID, long expect, long update)
+	{
+		Buffer buffer = bufferFor(listingID);
+		synchronized (buffer) {
+			DataOutputStream out = open(buffer);
+			if (!listings.compareAndSetBid(listingID, expect, update))
+				return false;
+			try {
+				out.writeByte(BID);
+				out.writeInt(listingID);
+				out.writeLong(expect);
+				out.writeLong(update);
+			}
+			catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			appended(buffer);
+			return true;
+		}
+	}
+
+	void proxy(int listingID, long proxy)
+	{
+		Buffer buffer = bufferFor(listingID);
+		synchronized (buffer) {
+			DataOutputStream out = open(buffer);
+			try {
+				out.writeByte(PROXY);
+				out.writeInt(listingID);
+				out.writeLong(proxy);
+			}
+			catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			appended(buffer);
+		}
+	}
+
+	void blacklist(int participantID)
+	{
+		synchronized (shared) {
+			DataOutputStream out = open(shared);
+			try {
+				out.writeByte(BLACKLIST);
+				out.writeInt(participantID);
+			}
+			catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			appended(shared);
+		}
+	}
+
+	void payment(int listingID, int amount)
+	{
+		synchronized (shared) {
+			DataOutputStream out = open(shared);
+			try {
+				out.writeByte(PAYMENT);
+				out.writeInt(listingID);
+				out.writeInt(amount);
+			}
+			catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			appended(shared);
+		}
+	}
+
+	private Buffer bufferFor(int listingID)
+	{
+		return listingBuffers[Math.floorMod(listingID, listingBuffers.length)];
+	}
+
+	/**
+	 * @return The buffer's stream, to append a record to.  The caller holds the buffer's lock.
+	 * @throws UncheckedIOException If the journal has been closed
+	 */
+	private static DataOutputStream open(Buffer buffer)
+	{
+		if (buffer.closed)
+			throw new UncheckedIOException(new IOException("Journal is closed"));
+		return buffer.out;
+	}
+
+	/**
+	 * Notes that the calling thread has appended a record to the buffer.  The
+	 * caller holds the buffer's lock.
+	 */
+	private void appended(Buffer buffer)
+	{
+		long[] mine = lastAppended.get();
+		if (buffer.batch > mine[0])
+			mine[0] = buffer.batch;
+	}
+
+	/**
+	 * Takes the records of every buffer.  The listing buffers are taken before
+	 * the shared one and written after it, so a listing's record always comes
+	 * before the bids on it.
+	 * @param endBatch True to count records appended afterwards towards the next batch
+	 */
+	private byte[] takeAll(boolean endBatch)
+	{
+		byte[][] bids = new byte[listingBuffers.length][];
+		for (int i = 0; i < listingBuffers.length; i++) {
+			synchronized (listingBuffers[i]) {
+				bids[i] = listingBuffers[i].take(endBatch);
+			}
+		}
+		ByteArrayOutputStream all = new ByteArrayOutputStream();
+		synchronized (shared) {
+			all.writeBytes(shared.take(endBatch));
+		}
+		for (byte[] records : bids)
+			all.writeBytes(records);
+		return all.toByteArray();
+	}
+
+	/**
+	 * Waits until every record the calling thread has appended is on disk.
+	 * Must not be called while holding a lock other threads may need.
+	 * @throws UncheckedIOException If the journal could not be written, or was
+	 * closed before the records were
+	 */
+	void sync()
+	{
+		long mine = lastAppended.get()[0];
+		lock.lock();
+		try {
+			if (mine > requestedBatch) {
+				requestedBatch = mine;
+				requested.signal();
+			}
+			while (durableBatch < mine && failure == null)
+				forced.awaitUninterruptibly();
+			if (durableBatch < mine)
+				throw new UncheckedIOException(failure);
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Writes out everything appended so far and closes the file.  Records
+	 * appended afterwards are refused, and threads still waiting for records
+	 * that did not make it to disk fail.
+	 */
+	void close() throws IOException
+	{
+		for (Buffer buffer : listingBuffers) {
+			synchronized (buffer) {
+				buffer.closed = true;
+			}
+		}
+		synchronized (shared) {
+			shared.closed = true;
+		}
+
+		lock.lock();
+		try {
+			closing = true;
+			requested.signal();
+		}
+		finally {
+			lock.unlock();
+		}
+		try {
+			writer.join();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		FileChannel next;
+		lock.lock();
+		try {
+			if (failure == null)
+				failure = new IOException("Journal is closed");
+			forced.signalAll();
+			next = nextChannel;
+			nextChannel = null;
+		}
+		finally {
+			lock.unlock();
+		}
+		try {
+			if (next != null)
+				next.close();
+		}
+		finally {
+			channel.close();
+		}
+	}
+
+	private void writeBatches()
+	{
+		while (true) {
+			byte[] lastOfSegment;
+			FileChannel next;
+			long batch;
+			boolean last;
+			lock.lock();
+			try {
+				while (requestedBatch < nextBatch && nextChannel == null && !closing)
+					requested.awaitUninterruptibly();
+				last = closing;
+				lastOfSegment = beforeRotation;
+				next = nextChannel;
+				beforeRotation = null;
+				nextChannel = null;
+				batch = nextBatch++;
+			}
+			finally {
+				lock.unlock();
+			}
+
+			IOException error = null;
+			try {
+				byte[] records = takeAll(true);
+				if (next != null) {
+					write(lastOfSegment);
+					channel.close();
+					channel = next;
+				}
+				write(records);
+			}
+			catch (IOException e) {
+				error = e;
+			}
+
+			lock.lock();
+			try {
+				if (error != null) {
+					failure = error;
+					forced.signalAll();
+					return;
+				}
+				durableBatch = batch;
+				forced.signalAll();
+				if (last)
+					return;
+			}
+			finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	private void write(byte[] batch) throws IOException
+	{
+		ByteBuffer buffer = ByteBuffer.wrap(batch);
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+		channel.force(false);
+	}
+
+	/**
+	 * Reads a journal segment and hands its records to the replayer.  Bid
+	 * transitions that do not apply, because a checkpoint already holds their
+	 * result, are dropped.  Reading stops at the first incomplete record.
+	 * @param minGeneration Segments older than this are skipped
+	 * @return The segment's generation, or -1 if it does not exist or was skipped
+	 */
+	static long replay(File file, long minGeneration, Replayer replayer) throws IOException
+	{
+		if (!file.exists())
+			return -1;
+
+		ByteBuffer in;
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		if (in.remaining() < 12 || in.getInt() != MAGIC)
+			return -1;
+		long generation = in.getLong();
+		if (generation < minGeneration)
+			return -1;
+
+		try {
+			while (in.hasRemaining()) {
+				byte type = in.get();
+				switch (type) {
+				case PARTICIPANT:
+					replayer.participant(in.getInt(), string(in));
+					break;
+				case LISTING:
+					replayer.listing(in.getInt(), in.getInt(), string(in), in.getInt(), in.getInt(), in.getLong());
+					break;
+				case BID:
+					replayer.bid(in.getInt(), in.getLong(), in.getLong());
+					break;
+				case PROXY:
+					replayer.proxy(in.getInt(), in.getLong());
+					break;
+				case BLACKLIST:
+					replayer.blacklist(in.getInt());
+					break;
+				case PAYMENT:
+					replayer.payment(in.getInt(), in.getInt());
+					break;
+				default:
+					return generation;
+				}
+			}
+		}
+		catch (BufferUnderflowException e) {
+			//Torn write at the end of the journal
+		}
+		return generation;
+	}
+
+	static String string(ByteBuffer in)
+	{
+		byte[] bytes = new byte[in.getInt()];
+		in.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
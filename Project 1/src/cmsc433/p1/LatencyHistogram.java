@@ -0,0 +1,106 @@
+package cmsc433.p1;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts durations in nanoseconds into log-linear buckets: each power of two
+ * is split into 16 buckets, so a reported percentile is within about 6% of the
+ * true value.  Recording is a single atomic increment and never allocates, so
+ * it can be done on every call; reads are not atomic with respect to recording.
+ * Threads record into one of a few copies of the buckets, picked by thread ID,
+ * so that busy buckets are not all contended by every thread.
+ */
+class LatencyHistogram
+{
+	private static final int SUB_BITS = 4;
+	private static final int SUB_COUNT = 1 << SUB_BITS;
+
+	// Enough buckets for any positive long.
+	private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB_COUNT;
+
+	// Number of copies of the buckets, a power of two.
+	private static final int STRIPES = Math.min(8, Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1));
+
+	private final AtomicLongArray counts = new AtomicLongArray(STRIPES * BUCKETS);
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Counts one duration; negative durations count as 0.
+	 */
+	void record(long nanos)
+	{
+		long value = Math.max(0, nanos);
+		int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+		counts.getAndIncrement(stripe * BUCKETS + bucketOf(value));
+		long highest;
+		while (value > (highest = max.get()) && !max.compareAndSet(highest, value))
+			;
+	}
+
+	private static int bucketOf(long value)
+	{
+		if (value < SUB_COUNT)
+			return (int) value;
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_COUNT - 1);
+		return (exponent - SUB_BITS + 1) * SUB_COUNT + sub;
+	}
+
+	/**
+	 * @return The largest value counted in the bucket
+	 */
+	private static long highestIn(int bucket)
+	{
+		if (bucket < SUB_COUNT)
+			return bucket;
+		int exponent = bucket / SUB_COUNT + SUB_BITS - 1;
+		int sub = bucket % SUB_COUNT;
+		long lowest = (long) (SUB_COUNT + sub) << (exponent - SUB_BITS);
+		return lowest + (1L << (exponent - SUB_BITS)) - 1;
+	}
+
+	/**
+	 * @return Number of durations counted
+	 */
+	long count()
+	{
+		long count = 0;
+		for (int i = 0; i < counts.length(); i++)
+			count += counts.get(i);
+		return count;
+	}
+
+	/**
+	 * @return Longest duration counted, in nanoseconds
+	 */
+	long max()
+	{
+		return max.get();
+	}
+
+	/**
+	 * @param fraction Between 0 and 1, e.g. 0.99 for the 99th percentile
+	 * @return Duration in nanoseconds that at least that fraction of the counted durations do not exceed, or 0 if none were counted
+	 */
+	long percentile(double fraction)
+	{
+		long[] snapshot = new long[BUCKETS];
+		long total = 0;
+		for (int i = 0; i < counts.length(); i++) {
+			snapshot[i % BUCKETS] += counts.get(i);
+			total += counts.get(i);
+		}
+		if (total == 0)
+			return 0;
+
+		long wanted = Math.max(1, (long) Math.ceil(fraction * total));
+		long seen = 0;
+		for (int i = 0; i < snapshot.length; i++) {
+			seen += snapshot[i];
+			if (seen >= wanted)
+				return Math.min(highestIn(i), max.get());
+		}
+		return max.get();
+	}
+}
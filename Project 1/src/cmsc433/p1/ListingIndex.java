@@ -0,0 +1,119 @@
+package cmsc433.p1;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Secondary indexes over the listings up for bidding: by current price, by
+ * seller and by bidding deadline.
+ *
+ * The indexes are updated after the bid word they describe has changed, so
+ * concurrent bids on the same listing can leave an entry for a price the
+ * listing no longer has.  Readers must check each entry against the listing's
+ * bid word and may drop the ones that turn out to be stale.  Updates for racing
+ * bids can also land in either order and remove the entry for the current
+ * price, so whoever removes a price entry must then check the bid word and put
+ * the current price back with <code>priced</code>.
+ */
+class ListingIndex
+{
+	// Listings ordered by current price, then listing ID, each packed as price << 32 | listingID.
+	private final ConcurrentSkipListSet<Long> byPrice = new ConcurrentSkipListSet<Long>();
+
+	// Listing IDs of each seller's active items, by seller's participant ID.
+	private final ConcurrentHashMap<Integer, NavigableSet<Integer>> bySeller = new ConcurrentHashMap<Integer, NavigableSet<Integer>>();
+
+	// Items ordered by bidding deadline, then listing ID.
+	private final ConcurrentSkipListSet<Item> byDeadline = new ConcurrentSkipListSet<Item>(new Comparator<Item>()
+	{
+		@Override
+		public int compare(Item a, Item b)
+		{
+			int byTime = Long.compare(a.biddingDeadlineNanos(), b.biddingDeadlineNanos());
+			return byTime != 0 ? byTime : Integer.compare(a.listingID(), b.listingID());
+		}
+	});
+
+	static long priceKey(int price, int listingID)
+	{
+		return ((long) price << 32) | listingID;
+	}
+
+	static int priceOf(long priceKey)
+	{
+		return (int) (priceKey >>> 32);
+	}
+
+	static int listingOf(long priceKey)
+	{
+		return (int) priceKey;
+	}
+
+	void add(Item item, int sellerID)
+	{
+		byPrice.add(priceKey(item.lowestBiddingPrice(), item.listingID()));
+		bySeller.computeIfAbsent(sellerID, id -> new ConcurrentSkipListSet<Integer>()).add(item.listingID());
+		byDeadline.add(item);
+	}
+
+	void repriced(int listingID, int oldPrice, int newPrice)
+	{
+		if (oldPrice == newPrice)
+			return;
+		byPrice.add(priceKey(newPrice, listingID));
+		byPrice.remove(priceKey(oldPrice, listingID));
+	}
+
+	void remove(Item item, int sellerID, int price)
+	{
+		byPrice.remove(priceKey(price, item.listingID()));
+		NavigableSet<Integer> listings = bySeller.get(sellerID);
+		if (listings != null)
+			listings.remove(item.listingID());
+		byDeadline.remove(item);
+	}
+
+	/**
+	 * Makes sure the listing has an entry for the given price, its current one.
+	 */
+	void priced(int listingID, int price)
+	{
+		byPrice.add(priceKey(price, listingID));
+	}
+
+	/**
+	 * Drops a price entry found to be stale.
+	 */
+	void removePriceKey(long priceKey)
+	{
+		byPrice.remove(priceKey);
+	}
+
+	/**
+	 * @return Price keys of listings priced at most maxPrice, cheapest first
+	 */
+	NavigableSet<Long> pricedAtMost(int maxPrice)
+	{
+		return byPrice.headSet(priceKey(maxPrice, Integer.MAX_VALUE), true);
+	}
+
+	/**
+	 * @return IDs of the seller's listings, lowest first
+	 */
+	NavigableSet<Integer> listedBy(int sellerID)
+	{
+		NavigableSet<Integer> listings = bySeller.get(sellerID);
+		return listings != null ? listings : Collections.<Integer>emptyNavigableSet();
+	}
+
+	/**
+	 * @return Items in deadline order, soonest first
+	 */
+	NavigableSet<Item> byDeadline()
+	{
+		return byDeadline;
+	}
+}
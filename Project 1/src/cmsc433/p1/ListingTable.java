@@ -0,0 +1,211 @@
+package cmsc433.p1;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Array-backed table of every listing ever submitted, indexed directly by
+ * listing ID.  Listing IDs are handed out densely from 0, so each listing is
+ * a slot in a fixed-size chunk rather than a boxed hash map entry.
+ *
+ * For every listing the table stores its <code>Item</code>, one packed
+ * <code>long</code> holding the bidding state and one holding the standing
+ * proxy bid, if any (see <code>AuctionServer</code>).  Reads of the item and
+ * bidding state never lock; proxy bids must be accessed under the listing's
+ * stripe lock.  Listings must be added one at a time in ID order.
+ *
+ * A table can hold every <code>stride</code>th listing ID starting at
+ * <code>offset</code>, for a shard of a <code>ShardedAuctionServer</code>; the
+ * listings are still stored densely.
+ *
+ * Once a listing is settled its bid word can no longer change, so only the
+ * bid word is kept: the item is dropped, and a chunk whose listings are all
+ * settled shrinks to its bid words alone.  A bid racing with settlement may
+ * still read such a listing, so it then has no item and a proxy word of 0.
+ */
+class ListingTable
+{
+	private static final int CHUNK_BITS = 10;
+	private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+	private static class Chunk
+	{
+		// Items of unsettled listings, or null once every listing in the chunk is settled.
+		final AtomicReferenceArray<Item> items;
+		final AtomicLongArray bids;
+		// Proxy bids, null like items; each listing's entry is guarded by its stripe lock in AuctionServer.
+		final long[] proxies;
+		final AtomicInteger settled = new AtomicInteger();
+
+		Chunk()
+		{
+			this.items = new AtomicReferenceArray<Item>(CHUNK_SIZE);
+			this.bids = new AtomicLongArray(CHUNK_SIZE);
+			this.proxies = new long[CHUNK_SIZE];
+		}
+
+		Chunk(AtomicLongArray bids)
+		{
+			this.items = null;
+			this.bids = bids;
+			this.proxies = null;
+		}
+	}
+
+	private volatile Chunk[] chunks = new Chunk[16];
+	// Number of slots in use.
+	private volatile int count = 0;
+
+	private final int offset;
+	private final int stride;
+
+	/**
+	 * Creates a table for listing IDs 0, 1, 2...
+	 */
+	ListingTable()
+	{
+		this(0, 1);
+	}
+
+	/**
+	 * Creates a table for listing IDs <code>offset</code>,
+	 * <code>offset + stride</code>, <code>offset + 2 * stride</code>...
+	 */
+	ListingTable(int offset, int stride)
+	{
+		this.offset = offset;
+		this.stride = stride;
+	}
+
+	/**
+	 * Adds a listing.  Callers must serialize calls to this method.
+	 * @param item The listed item; its listing ID determines the slot it is stored in
+	 * @param bid The listing's initial bid word
+	 */
+	void add(Item item, long bid)
+	{
+		add(item.listingID(), item, bid);
+	}
+
+	/**
+	 * Adds a listing that has already been settled and dropped its item, when
+	 * restoring a checkpoint.  Callers must serialize calls to this method and
+	 * <code>add</code>, and still call <code>settled</code> for the listing.
+	 */
+	void addSettled(int listingID, long bid)
+	{
+		add(listingID, null, bid);
+	}
+
+	private synchronized void add(int id, Item item, long bid)
+	{
+		int slot = slot(id);
+		int index = slot >>> CHUNK_BITS;
+		Chunk[] current = chunks;
+		if (index >= current.length)
+			current = Arrays.copyOf(current, Math.max(index + 1, current.length * 2));
+		if (current[index] == null)
+			current[index] = new Chunk();
+		chunks = current;
+
+		Chunk chunk = current[index];
+		chunk.bids.set(slot & CHUNK_MASK, bid);
+		if (item != null)
+			chunk.items.set(slot & CHUNK_MASK, item);
+		//Setting the count last publishes the listing
+		count = slot + 1;
+	}
+
+	/**
+	 * @return True if a listing with the given ID has been added, settled or not
+	 */
+	boolean exists(int listingID)
+	{
+		int slot = slot(listingID);
+		return slot >= 0 && slot < count && (listingID - offset) % stride == 0;
+	}
+
+	/**
+	 * @return The item listed under the given ID, or null if there is none or
+	 * the listing has been settled
+	 */
+	Item item(int listingID)
+	{
+		Chunk chunk = exists(listingID) ? chunk(listingID) : null;
+		return chunk == null || chunk.items == null ? null : chunk.items.get(slot(listingID) & CHUNK_MASK);
+	}
+
+	/**
+	 * Drops the item of a listing whose bid word will not change again: it is
+	 * closed and either sold or unbid.  Must be called once per
+	 * listing.  Once every listing in a chunk is settled, the chunk is replaced
+	 * by one holding only the bid words.
+	 */
+	void settled(int listingID)
+	{
+		Chunk chunk = chunk(listingID);
+		if (chunk.items == null)
+			return;
+		chunk.items.set(slot(listingID) & CHUNK_MASK, null);
+		if (chunk.settled.incrementAndGet() < CHUNK_SIZE)
+			return;
+
+		synchronized (this) {
+			chunks[slot(listingID) >>> CHUNK_BITS] = new Chunk(chunk.bids);
+		}
+	}
+
+	/**
+	 * @return The bid word of an existing listing
+	 */
+	long bid(int listingID)
+	{
+		return chunk(listingID).bids.get(slot(listingID) & CHUNK_MASK);
+	}
+
+	/**
+	 * Atomically replaces the bid word of an existing listing if it still has
+	 * the expected value.
+	 */
+	boolean compareAndSetBid(int listingID, long expect, long update)
+	{
+		return chunk(listingID).bids.compareAndSet(slot(listingID) & CHUNK_MASK, expect, update);
+	}
+
+	/**
+	 * @return The proxy word of an existing listing, or 0 once its chunk has
+	 * shrunk to its bid words, which a bid may still race with
+	 */
+	long proxy(int listingID)
+	{
+		long[] proxies = chunk(listingID).proxies;
+		return proxies == null ? 0 : proxies[slot(listingID) & CHUNK_MASK];
+	}
+
+	/**
+	 * Sets the proxy word of an existing listing.  Once its chunk has shrunk
+	 * the listing is settled and takes no more bids, so there is nothing to set.
+	 */
+	void setProxy(int listingID, long proxy)
+	{
+		long[] proxies = chunk(listingID).proxies;
+		if (proxies != null)
+			proxies[slot(listingID) & CHUNK_MASK] = proxy;
+	}
+
+	private int slot(int listingID)
+	{
+		return stride == 1 ? listingID - offset : Math.floorDiv(listingID - offset, stride);
+	}
+
+	private Chunk chunk(int listingID)
+	{
+		Chunk[] current = chunks;
+		int slot = slot(listingID);
+		int index = slot >>> CHUNK_BITS;
+		return slot < 0 || index >= current.length ? null : current[index];
+	}
+}
@@ -0,0 +1,209 @@
+package cmsc433.p1;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs a configurable mix of <code>Sellers</code> and <code>Bidders</code>
+ * against a server and reports the throughput and latency of every server
+ * method, followed by the auction's results.
+ *
+ * Options are given as <code>name=value</code> arguments; see
+ * <code>DEFAULTS</code> for the names and default values.  The clients run in
+ * cycles of calls separated by random think times, so the duration sets how
+ * many cycles they run and the run takes about that long; bidders still holding
+ * bids finish following them up afterwards.  Throughput is measured over the
+ * actual run time.  The clients' own output is discarded during the run.
+ */
+public class LoadGenerator
+{
+	private static final String[][] DEFAULTS = {
+		{ "sellers", "50" },
+		{ "bidders", "20" },
+		{ "aggressive", "0.0" },           // Fraction of bidders that are aggressive rather than conservative
+		{ "cash", "100" },                 // Each bidder's starting cash
+		{ "sellerThinkMs", "50" },         // Maximum think time between a seller's cycles
+		{ "bidderThinkMs", "150" },        // Maximum think time between a bidder's cycles
+		{ "durationMs", "10000" },
+		{ "maxOpeningPrice", "100" },
+		{ "minBiddingDurationMs", "100" },
+		{ "maxBiddingDurationMs", "200" },
+		{ "server", "synchronized" },      // synchronized, lockfree, sharded or sequenced
+		{ "threads", "platform" },         // platform or virtual
+		{ "network", "false" },            // true to reach the server over loopback TCP, one connection per client
+		{ "ioThreads", "2" },              // I/O threads serving the network connections
+		{ "workerThreads", "8" },          // Threads carrying out the network requests
+		{ "callsPerSecond", "0" },         // Admission control: calls per participant per second, 0 for no limit
+		{ "burst", "10" },                 // Admission control: calls a participant may make at once
+		{ "maxConcurrentCalls", "0" },     // Admission control: calls inside the server at once, 0 for no limit
+		{ "maxWaitMs", "0" },              // Admission control: longest a call waits for a limit
+		{ "seed", "0" },
+	};
+
+	public static void main(String[] args) throws InterruptedException, IOException
+	{
+		Map<String, String> options = new HashMap<String, String>();
+		for (String[] option : DEFAULTS)
+			options.put(option[0], option[1]);
+		for (String arg : args) {
+			int equals = arg.indexOf('=');
+			if (equals < 0 || !options.containsKey(arg.substring(0, equals)))
+				throw new IllegalArgumentException("Unknown option: " + arg);
+			options.put(arg.substring(0, equals), arg.substring(equals + 1));
+		}
+
+		int nrSellers = Integer.parseInt(options.get("sellers"));
+		int nrBidders = Integer.parseInt(options.get("bidders"));
+		double aggressive = Double.parseDouble(options.get("aggressive"));
+		int cash = Integer.parseInt(options.get("cash"));
+		int sellerThinkMs = Integer.parseInt(options.get("sellerThinkMs"));
+		int bidderThinkMs = Integer.parseInt(options.get("bidderThinkMs"));
+		int durationMs = Integer.parseInt(options.get("durationMs"));
+		int maxOpeningPrice = Integer.parseInt(options.get("maxOpeningPrice"));
+		int minBiddingDurationMs = Integer.parseInt(options.get("minBiddingDurationMs"));
+		int maxBiddingDurationMs = Integer.parseInt(options.get("maxBiddingDurationMs"));
+		Random rand = new Random(Long.parseLong(options.get("seed")));
+
+		ThreadFactory threads = options.get("threads").equals("virtual") ? ClientThreads.virtual() : null;
+		if (threads == null) {
+			if (options.get("threads").equals("virtual"))
+				System.out.println("Virtual threads are not available, using platform threads");
+			threads = ClientThreads.platform();
+		}
+
+		AuctionServer target = newServer(options.get("server"));
+		AdmissionControlledAuctionServer admission = null;
+		int callsPerSecond = Integer.parseInt(options.get("callsPerSecond"));
+		int maxConcurrentCalls = Integer.parseInt(options.get("maxConcurrentCalls"));
+		if (callsPerSecond > 0 || maxConcurrentCalls > 0) {
+			admission = new AdmissionControlledAuctionServer(target, callsPerSecond,
+					Integer.parseInt(options.get("burst")), maxConcurrentCalls, Integer.parseInt(options.get("maxWaitMs")));
+			target = admission;
+		}
+		MeteredAuctionServer server = new MeteredAuctionServer(target);
+
+		//Over the network the server times its methods as it carries out the requests
+		NetworkAuctionServer network = null;
+		if (Boolean.parseBoolean(options.get("network"))) {
+			network = new NetworkAuctionServer(server, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+					Integer.parseInt(options.get("ioThreads")), Integer.parseInt(options.get("workerThreads")));
+		}
+
+		Thread[] clients = new Thread[nrSellers + nrBidders];
+		Bidder[] bidders = new Bidder[nrBidders];
+		for (int i = 0; i < nrSellers; i++) {
+			clients[i] = threads.newThread(new Seller(connect(server, network), "Seller" + i,
+					cyclesIn(durationMs, sellerThinkMs), sellerThinkMs, maxOpeningPrice, minBiddingDurationMs,
+					maxBiddingDurationMs, rand.nextLong()));
+		}
+		for (int i = 0; i < nrBidders; i++) {
+			int cycles = cyclesIn(durationMs, bidderThinkMs);
+			AuctionServer connection = connect(server, network);
+			if (rand.nextDouble() < aggressive)
+				bidders[i] = new AggressiveBidder(connection, "Bidder" + i, cash, cycles, bidderThinkMs, rand.nextLong());
+			else
+				bidders[i] = new ConservativeBidder(connection, "Bidder" + i, cash, cycles, bidderThinkMs, rand.nextLong());
+			clients[nrSellers + i] = threads.newThread(bidders[i]);
+		}
+
+		PrintStream out = System.out;
+		System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+		long start = System.nanoTime();
+		try {
+			for (Thread client : clients)
+				client.start();
+			for (Thread client : clients)
+				client.join();
+		}
+		finally {
+			System.setOut(out);
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		//Let the last listings close before reading the results
+		Thread.sleep(maxBiddingDurationMs + 100);
+		report(server, seconds, bidders);
+		if (admission != null) {
+			System.out.println();
+			System.out.println("Admitted calls:      " + admission.admittedCalls());
+			System.out.println("Deferred calls:      " + admission.deferredCalls());
+			System.out.println("Rate limited:        " + admission.rateLimitedCalls());
+			System.out.println("Concurrency limited: " + admission.concurrencyLimitedCalls());
+		}
+		if (network != null)
+			network.shutdown();
+		server.shutdown();
+	}
+
+	/**
+	 * @return The server for one client: the server itself, or a new connection to it over the network
+	 */
+	private static AuctionServer connect(AuctionServer server, NetworkAuctionServer network) throws IOException
+	{
+		return network == null ? server : new RemoteAuctionServer(network.address());
+	}
+
+	/**
+	 * @param kind synchronized, lockfree, sharded or sequenced
+	 * @return A new server of that kind
+	 */
+	static AuctionServer newServer(String kind)
+	{
+		switch (kind) {
+		case "synchronized":
+			return new AuctionServer(AuctionServer.defaultLockStripes);
+		case "lockfree":
+			return new AuctionServer(AuctionServer.defaultLockStripes, BidEngine.LOCK_FREE);
+		case "sharded":
+			return new ShardedAuctionServer(4, AuctionServer.defaultLockStripes / 4, BidEngine.SYNCHRONIZED);
+		case "sequenced":
+			return new SequencedAuctionServer(1024, BidEngine.SYNCHRONIZED);
+		default:
+			throw new IllegalArgumentException("Unknown server: " + kind);
+		}
+	}
+
+	/**
+	 * @return Number of cycles with random think times up to <code>thinkMs</code> that take about <code>durationMs</code>
+	 */
+	private static int cyclesIn(int durationMs, int thinkMs)
+	{
+		return Math.max(1, durationMs / Math.max(1, thinkMs / 2));
+	}
+
+	private static void report(MeteredAuctionServer server, double seconds, Bidder[] bidders)
+	{
+		System.out.printf("Ran for %.2f s%n%n", seconds);
+		System.out.printf("%-18s %10s %12s %10s %10s %10s %10s%n",
+				"method", "calls", "ops/s", "p50 us", "p99 us", "p999 us", "max us");
+
+		long totalCalls = 0;
+		for (Map.Entry<String, LatencyHistogram> entry : server.latencies().entrySet()) {
+			LatencyHistogram latency = entry.getValue();
+			long calls = latency.count();
+			if (calls == 0)
+				continue;
+			totalCalls += calls;
+			System.out.printf("%-18s %10d %12.0f %10.1f %10.1f %10.1f %10.1f%n", entry.getKey(), calls, calls / seconds,
+					latency.percentile(0.50) / 1e3, latency.percentile(0.99) / 1e3,
+					latency.percentile(0.999) / 1e3, latency.max() / 1e3);
+		}
+		System.out.printf("%-18s %10d %12.0f%n%n", "total", totalCalls, totalCalls / seconds);
+
+		int spent = 0;
+		for (Bidder bidder : bidders)
+			spent += bidder.cashSpent();
+		AuctionStats stats = server.stats();
+		System.out.println("Items sold:          " + stats.getSoldItemsCount());
+		System.out.println("Revenue:             " + stats.getRevenue());
+		System.out.println("Uncollected revenue: " + stats.getUncollectedRevenue());
+		System.out.println("Cash spent:          " + spent);
+	}
+}
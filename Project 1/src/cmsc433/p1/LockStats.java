@@ -0,0 +1,141 @@
+package cmsc433.p1;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Counts the acquisitions of one of the server's monitors and samples how long
+ * threads wait for it and hold it.  Code that needs the monitor runs through
+ * one of the <code>locked</code> methods, as in
+ * <code>stats.lockedRun(lock, () -> ...)</code>, which enter it and keep count.
+ *
+ * Every acquisition is counted, but only one in <code>SAMPLE_EVERY</code> is
+ * timed, so an untimed acquisition costs a random number and a
+ * <code>LongAdder</code> increment.
+ */
+class LockStats
+{
+	static final int SAMPLE_EVERY = 16;
+
+	private static final long NOT_TIMED = Long.MIN_VALUE;
+
+	private final LongAdder acquisitions = new LongAdder();
+	private final LongAdder timed = new LongAdder();
+	private final LongAdder waitNanos = new LongAdder();
+	private final LongAdder holdNanos = new LongAdder();
+	private final AtomicLong maxWaitNanos = new AtomicLong();
+	private final AtomicLong maxHoldNanos = new AtomicLong();
+
+	/**
+	 * Runs the body while holding the monitor.
+	 */
+	void lockedRun(Object lock, Runnable body)
+	{
+		long requested = request();
+		synchronized (lock) {
+			long acquired = acquired(requested);
+			try {
+				body.run();
+			}
+			finally {
+				released(acquired);
+			}
+		}
+	}
+
+	/**
+	 * Runs the body while holding the monitor.
+	 * @return What the body returned
+	 */
+	<T> T locked(Object lock, Supplier<T> body)
+	{
+		long requested = request();
+		synchronized (lock) {
+			long acquired = acquired(requested);
+			try {
+				return body.get();
+			}
+			finally {
+				released(acquired);
+			}
+		}
+	}
+
+	/**
+	 * Runs the body while holding the monitor, without boxing its result.
+	 * @return What the body returned
+	 */
+	long lockedLong(Object lock, LongSupplier body)
+	{
+		long requested = request();
+		synchronized (lock) {
+			long acquired = acquired(requested);
+			try {
+				return body.getAsLong();
+			}
+			finally {
+				released(acquired);
+			}
+		}
+	}
+
+	/**
+	 * Called just before entering the monitor.
+	 * @return The time, if this acquisition is timed
+	 */
+	private long request()
+	{
+		return ThreadLocalRandom.current().nextInt(SAMPLE_EVERY) == 0 ? System.nanoTime() : NOT_TIMED;
+	}
+
+	/**
+	 * Called first thing inside the monitor.
+	 * @param requested What <code>request</code> returned
+	 * @return The time, if this acquisition is timed
+	 */
+	private long acquired(long requested)
+	{
+		acquisitions.increment();
+		if (requested == NOT_TIMED)
+			return NOT_TIMED;
+
+		long now = System.nanoTime();
+		timed.increment();
+		waitNanos.add(now - requested);
+		raise(maxWaitNanos, now - requested);
+		return now;
+	}
+
+	/**
+	 * Called last thing inside the monitor.
+	 * @param acquired What <code>acquired</code> returned
+	 */
+	private void released(long acquired)
+	{
+		if (acquired == NOT_TIMED)
+			return;
+
+		long held = System.nanoTime() - acquired;
+		holdNanos.add(held);
+		raise(maxHoldNanos, held);
+	}
+
+	private static void raise(AtomicLong max, long value)
+	{
+		long current;
+		while (value > (current = max.get()) && !max.compareAndSet(current, value))
+			;
+	}
+
+	/**
+	 * @return What has been counted so far, under the given lock name
+	 */
+	LockUsage usage(String name)
+	{
+		return new LockUsage(name, acquisitions.sum(), timed.sum(), waitNanos.sum(), maxWaitNanos.get(),
+				holdNanos.sum(), maxHoldNanos.get());
+	}
+}
@@ -0,0 +1,114 @@
+package cmsc433.p1;
+
+/**
+ * How much one of a server's locks has been used: how often it was acquired,
+ * and how long threads waited for it and held it.  Wait and hold times are
+ * measured on a sample of the acquisitions.
+ *
+ * The getters follow the JavaBeans naming JMX needs to publish this through
+ * <code>AuctionServerMXBean</code>.
+ */
+public class LockUsage
+{
+	private final String name;
+	private final long acquisitions;
+	private final long timedAcquisitions;
+	private final long totalWaitNanos;
+	private final long maxWaitNanos;
+	private final long totalHoldNanos;
+	private final long maxHoldNanos;
+
+	LockUsage(String name, long acquisitions, long timedAcquisitions, long totalWaitNanos, long maxWaitNanos,
+			long totalHoldNanos, long maxHoldNanos)
+	{
+		this.name = name;
+		this.acquisitions = acquisitions;
+		this.timedAcquisitions = timedAcquisitions;
+		this.totalWaitNanos = totalWaitNanos;
+		this.maxWaitNanos = maxWaitNanos;
+		this.totalHoldNanos = totalHoldNanos;
+		this.maxHoldNanos = maxHoldNanos;
+	}
+
+	/**
+	 * Adds up the usage of the same lock in several servers, such as the shards
+	 * of a <code>ShardedAuctionServer</code>.
+	 */
+	static LockUsage combine(String name, LockUsage... parts)
+	{
+		long acquisitions = 0, timed = 0, wait = 0, maxWait = 0, hold = 0, maxHold = 0;
+		for (LockUsage part : parts) {
+			acquisitions += part.acquisitions;
+			timed += part.timedAcquisitions;
+			wait += part.totalWaitNanos;
+			maxWait = Math.max(maxWait, part.maxWaitNanos);
+			hold += part.totalHoldNanos;
+			maxHold = Math.max(maxHold, part.maxHoldNanos);
+		}
+		return new LockUsage(name, acquisitions, timed, wait, maxWait, hold, maxHold);
+	}
+
+	public String getName()
+	{
+		return this.name;
+	}
+
+	/**
+	 * @return Number of times the lock was acquired
+	 */
+	public long getAcquisitions()
+	{
+		return this.acquisitions;
+	}
+
+	/**
+	 * @return Number of acquisitions whose wait and hold times were measured
+	 */
+	public long getTimedAcquisitions()
+	{
+		return this.timedAcquisitions;
+	}
+
+	public long getTotalWaitNanos()
+	{
+		return this.totalWaitNanos;
+	}
+
+	public long getMaxWaitNanos()
+	{
+		return this.maxWaitNanos;
+	}
+
+	public long getTotalHoldNanos()
+	{
+		return this.totalHoldNanos;
+	}
+
+	public long getMaxHoldNanos()
+	{
+		return this.maxHoldNanos;
+	}
+
+	/**
+	 * @return Mean time a thread waited to acquire the lock, in nanoseconds
+	 */
+	public double getMeanWaitNanos()
+	{
+		return timedAcquisitions == 0 ? 0 : (double) totalWaitNanos / timedAcquisitions;
+	}
+
+	/**
+	 * @return Mean time the lock was held, in nanoseconds
+	 */
+	public double getMeanHoldNanos()
+	{
+		return timedAcquisitions == 0 ? 0 : (double) totalHoldNanos / timedAcquisitions;
+	}
+
+	@Override
+	public String toString()
+	{
+		return String.format("%s: %d acquisitions, wait mean %.0f ns max %d ns, hold mean %.0f ns max %d ns",
+				name, acquisitions, getMeanWaitNanos(), maxWaitNanos, getMeanHoldNanos(), maxHoldNanos);
+	}
+}
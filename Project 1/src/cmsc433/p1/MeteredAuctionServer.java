@@ -0,0 +1,398 @@
+package cmsc433.p1;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Passes every call on to another <code>AuctionServer</code>, timing each one
+ * into a latency histogram per method.  Both overloads of a method share a
+ * histogram.  The statistics, shutdown and journal methods are not timed.
+ * The latencies are available through <code>methodUsage</code>.
+ */
+public class MeteredAuctionServer extends AuctionServer
+{
+	private final AuctionServer target;
+
+	// Histograms by method name, in the order they are reported.
+	private final Map<String, LatencyHistogram> latencies = new LinkedHashMap<String, LatencyHistogram>();
+
+	private final LatencyHistogram registerParticipant = timer("registerParticipant");
+	private final LatencyHistogram subscribe = timer("subscribe");
+	private final LatencyHistogram pollEvents = timer("pollEvents");
+	private final LatencyHistogram submitItem = timer("submitItem");
+	private final LatencyHistogram getItems = timer("getItems");
+	private final LatencyHistogram getItemSnapshot = timer("getItemSnapshot");
+	private final LatencyHistogram getItemsIfChanged = timer("getItemsIfChanged");
+	private final LatencyHistogram itemsPricedAtMost = timer("itemsPricedAtMost");
+	private final LatencyHistogram itemsListedBy = timer("itemsListedBy");
+	private final LatencyHistogram itemsEndingWithin = timer("itemsEndingWithin");
+	private final LatencyHistogram submitBid = timer("submitBid");
+	private final LatencyHistogram submitBids = timer("submitBids");
+	private final LatencyHistogram submitProxyBid = timer("submitProxyBid");
+	private final LatencyHistogram checkBidStatus = timer("checkBidStatus");
+	private final LatencyHistogram itemPrice = timer("itemPrice");
+	private final LatencyHistogram itemPrices = timer("itemPrices");
+	private final LatencyHistogram itemUnbid = timer("itemUnbid");
+	private final LatencyHistogram payForItem = timer("payForItem");
+
+	/**
+	 * @param target The server to pass calls on to
+	 */
+	public MeteredAuctionServer(AuctionServer target)
+	{
+		this.target = target;
+	}
+
+	private LatencyHistogram timer(String method)
+	{
+		LatencyHistogram histogram = new LatencyHistogram();
+		latencies.put(method, histogram);
+		return histogram;
+	}
+
+	/**
+	 * @return The latency histogram of each method, by method name
+	 */
+	Map<String, LatencyHistogram> latencies()
+	{
+		return Collections.unmodifiableMap(latencies);
+	}
+
+	@Override
+	public int registerParticipant(String name)
+	{
+		long start = System.nanoTime();
+		try {
+			return target.registerParticipant(name);
+		}
+		finally {
+			registerParticipant.record(System.nanoTime() - start);
+		}
+	}
+
+	@Override
+	public void subscribe(int participantID)
+	{
+		long start = System.nanoTime();
+		try {
+			target.subscribe(participantID);
+		}
+		finally {
+			subscribe.record(System.nanoTime() - start);
+		}
+	}
+
+	@Override
+	public List<BidEvent> pollEvents(int participantID)
+	{
+		long start = System.nanoTime();
+		try {
+			return target.pollEvents(participantID);
+		}
+		finally {
+			pollEvents.record(System.nanoTime() - start);
+		}
+	}
+
+	@Override
+	public int submitItem(String sellerName, String itemName, int lowestBiddingPrice, int biddingDurationMs)
+	{
+		long start = System.nanoTime();
+		try {
+			return target.submitItem(sellerName, itemName, lowestBiddingPrice, biddingDurationMs);
+		}
+		finally {
+			submitItem.record(System.nanoTime() - start);
+		}
+	}
+
+	@Override
+	public int submitItem(int sellerID, String itemName, int lowestBiddingPrice, int biddingDurationMs)
+	{
+		long start = System.nanoTime();
+		try {
+			return target.submitItem(sellerID, itemName, lowestBiddingPrice, biddingDurationMs);
+		}
+		finally {
+			submitItem.record(System.nanoTime() - start);
+		}
+	}
+
+	@Override
+	public List<Item> getItems()
+	{
+		long start = System.nanoTime();
+		try {
+			return target.getItems();
+		}
+		finally {
+			getItems.record(System.nanoTime() - start);
+		}
+	}
+
+	@Override
+	public ItemSnapshot getItemSnapshot()
+	{
+		long start = System.nanoTime();
+		try {
+			return target.getItemSnapshot();
+		}
+		finally {
+			getItemSnapshot.record(System.nanoTime() - start);
+		}
+	}
+
+	@Override
+	public ItemSnapshot getItemsIfChanged(long version)
+	{
+		long start = System.nanoTime();
+		try {
+			return target.getItemsIfChanged(version);
+		}
+		finally {
+			getItemsIfChanged.record(System.nanoTime() - start);
+		}
+	}
+
+	@Override
+	public List<Item> itemsPricedAtMost(int maxPrice, int offset, int limit)
+	{
+		long start = System.nanoTime();
+		try {
+			return target.itemsPricedAtMost(maxPrice, offset, limit);
+		}
+		finally {
+			itemsPricedAtMost.record(System.nanoTime() - start);
+		}
+	}
+
+	@Override
+	public List<Item> itemsListedBy(String sellerName, int offset, int limit)
+	{
+		long start = System.nanoTime();
+		try {
+			return target.itemsListedBy(sellerName, offset, limit);
+		}
+		finally {
+			itemsListedBy.record(System.nanoTime() - start);
+		}
+	}
+
+	@Override
+	public List<Item> itemsListedBy(int sellerID, int offset, int limit)
+	{
+		long start = System.nanoTime();
+		try {
+			return target.itemsListedBy(sellerID, offset, limit);
+		}
+		finally {
+			itemsListedBy.record(System.nanoTime() - start);
+		}
+	}
+
+	@Override
+	public List<Item> itemsEndingWithin(int withinMs, int offset, int limit)
+	{
+		long start = System.nanoTime();
+		try {
+			return target.itemsEndingWithin(withinMs, offset, limit);
+		}
+		finally {
+			itemsEndingWithin.record(System.nanoTime() - start);
+		}
+	}
+
+	@Override
+	public boolean submitBid(String bidderName, int listingID, int biddingAmount)
+	{
+		long start = System.nanoTime();
+		try {
+			return target.submitBid(bidderName, listingID, biddingAmount);
+		}
+		finally {
+			submitBid.record(System.nanoTime() - start);
+		}
+	}
+
+	@Override
+	public boolean submitBid(int bidderID, int listingID, int biddingAmount)
+	{
+		long start = System.nanoTime();
+		try {
+			return target.submitBid(bidderID, listingID, biddingAmount);
+		}
+		finally {
+			submitBid.record(System.nanoTime() - start);
+		}
+	}
+
+	@Override
+	public boolean[] submitBids(BidRequest[] bids)
+	{
+		long start = System.nanoTime();
+		try {
+			return target.submitBids(bids);
+		}
+		finally {
+			submitBids.record(System.nanoTime() - start);
+		}
+	}
+
+	@Override
+	public boolean submitProxyBid(String bidderName, int listingID, int maxAmount)
+	{
+		long start = System.nanoTime();
+		try {
+			return target.submitProxyBid(bidderName, listingID, maxAmount);
+		}
+		finally {
+			submitProxyBid.record(System.nanoTime() - start);
+		}
+	}
+
+	@Override
+	public boolean submitProxyBid(int bidderID, int listingID, int maxAmount)
+	{
+		long start = System.nanoTime();
+		try {
+			return target.submitProxyBid(bidderID, listingID, maxAmount);
+		}
+		finally {
+			submitProxyBid.record(System.nanoTime() - start);
+		}
+	}
+
+	@Override
+	public int checkBidStatus(String bidderName, int listingID)
+	{
+		long start = System.nanoTime();
+		try {
+			return target.checkBidStatus(bidderName, listingID);
+		}
+		finally {
+			checkBidStatus.record(System.nanoTime() - start);
+		}
+	}
+
+	@Override
+	public int checkBidStatus(int bidderID, int listingID)
+	{
+		long start = System.nanoTime();
+		try {
+			return target.checkBidStatus(bidderID, listingID);
+		}
+		finally {
+			checkBidStatus.record(System.nanoTime() - start);
+		}
+	}
+
+	@Override
+	public int itemPrice(int listingID)
+	{
+		long start = System.nanoTime();
+		try {
+			return target.itemPrice(listingID);
+		}
+		finally {
+			itemPrice.record(System.nanoTime() - start);
+		}
+	}
+
+	@Override
+	public int[] itemPrices(int[] listingIDs)
+	{
+		long start = System.nanoTime();
+		try {
+			return target.itemPrices(listingIDs);
+		}
+		finally {
+			itemPrices.record(System.nanoTime() - start);
+		}
+	}
+
+	@Override
+	public boolean itemUnbid(int listingID)
+	{
+		long start = System.nanoTime();
+		try {
+			return target.itemUnbid(listingID);
+		}
+		finally {
+			itemUnbid.record(System.nanoTime() - start);
+		}
+	}
+
+	@Override
+	public String payForItem(String bidderName, int listingID, int amount) throws InsufficientFundsException
+	{
+		long start = System.nanoTime();
+		try {
+			return target.payForItem(bidderName, listingID, amount);
+		}
+		finally {
+			payForItem.record(System.nanoTime() - start);
+		}
+	}
+
+	@Override
+	public String payForItem(int bidderID, int listingID, int amount) throws InsufficientFundsException
+	{
+		long start = System.nanoTime();
+		try {
+			return target.payForItem(bidderID, listingID, amount);
+		}
+		finally {
+			payForItem.record(System.nanoTime() - start);
+		}
+	}
+
+	@Override
+	public AuctionStats stats()
+	{
+		return target.stats();
+	}
+
+	@Override
+	public List<LockUsage> lockUsage()
+	{
+		return target.lockUsage();
+	}
+
+	/**
+	 * @return The call count and latency percentiles of each method called at least once
+	 */
+	@Override
+	public List<MethodUsage> methodUsage()
+	{
+		List<MethodUsage> usage = new ArrayList<MethodUsage>();
+		for (Map.Entry<String, LatencyHistogram> entry : latencies.entrySet()) {
+			if (entry.getValue().count() > 0)
+				usage.add(new MethodUsage(entry.getKey(), entry.getValue()));
+		}
+		return usage;
+	}
+
+	@Override
+	public void shutdown()
+	{
+		target.shutdown();
+		super.shutdown();
+	}
+
+	@Override
+	public void openJournal(File file, long checkpointIntervalMs) throws IOException
+	{
+		target.openJournal(file, checkpointIntervalMs);
+	}
+
+	@Override
+	public void checkpoint() throws IOException
+	{
+		target.checkpoint();
+	}
+}
@@ -0,0 +1,65 @@
+package cmsc433.p1;
+
+/**
+ * How often one of a server's methods has been called and how long the calls
+ * took, as recorded by <code>MeteredAuctionServer</code>.
+ *
+ * The getters follow the JavaBeans naming JMX needs to publish this through
+ * <code>AuctionServerMXBean</code>.
+ */
+public class MethodUsage
+{
+	private final String name;
+	private final long calls;
+	private final long p50Nanos;
+	private final long p99Nanos;
+	private final long p999Nanos;
+	private final long maxNanos;
+
+	MethodUsage(String name, LatencyHistogram latency)
+	{
+		this.name = name;
+		this.calls = latency.count();
+		this.p50Nanos = latency.percentile(0.50);
+		this.p99Nanos = latency.percentile(0.99);
+		this.p999Nanos = latency.percentile(0.999);
+		this.maxNanos = latency.max();
+	}
+
+	public String getName()
+	{
+		return this.name;
+	}
+
+	public long getCalls()
+	{
+		return this.calls;
+	}
+
+	public long getP50Nanos()
+	{
+		return this.p50Nanos;
+	}
+
+	public long getP99Nanos()
+	{
+		return this.p99Nanos;
+	}
+
+	public long getP999Nanos()
+	{
+		return this.p999Nanos;
+	}
+
+	public long getMaxNanos()
+	{
+		return this.maxNanos;
+	}
+
+	@Override
+	public String toString()
+	{
+		return String.format("%s: %d calls, p50 %d ns, p99 %d ns, p99.9 %d ns, max %d ns",
+				name, calls, p50Nanos, p99Nanos, p999Nanos, maxNanos);
+	}
+}
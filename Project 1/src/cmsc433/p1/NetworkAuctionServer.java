@@ -0,0 +1,602 @@
+package cmsc433.p1;
+
+import static cmsc433.p1.AuctionProtocol.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.Channel;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Serves an <code>AuctionServer</code> over TCP, speaking the binary protocol
+ * of <code>AuctionProtocol</code>; <code>RemoteAuctionServer</code> is the
+ * matching client.
+ *
+ * A few I/O threads each run a selector over their share of the connections,
+ * so thousands of clients need no thread of their own.  The I/O threads only
+ * read and write: complete requests are handed to a pool of worker threads,
+ * because a server method may wait, for example on a journal commit, on the
+ * sequencer of a <code>SequencedAuctionServer</code> or on the limits of an
+ * <code>AdmissionControlledAuctionServer</code>.  One worker at a time
+ * carries out a connection's requests, so their responses go back in request
+ * order, and each response is passed back to the I/O thread to send.  A
+ * connection whose client sends requests faster than they are carried out, or
+ * does not read its responses, stops being read once a backlog builds up.
+ */
+public class NetworkAuctionServer
+{
+	// Bytes of requests and responses a connection may have waiting before its requests stop being read.
+	private static final int MAX_BACKLOG = 256 * 1024;
+
+	private static final int BUFFER_SIZE = 1024;
+
+	private final AuctionServer server;
+	private final ServerSocketChannel acceptor;
+	private final IoLoop[] loops;
+	private final ExecutorService workers;
+	private final AtomicInteger connections = new AtomicInteger();
+
+	private volatile boolean running = true;
+
+	/**
+	 * Starts serving the given server with four worker threads for each I/O thread.
+	 * @param server The server to call
+	 * @param address Address to listen on; port 0 picks a free port
+	 * @param ioThreads Number of I/O threads, at least 1
+	 * @throws IOException If the address cannot be listened on
+	 */
+	public NetworkAuctionServer(AuctionServer server, InetSocketAddress address, int ioThreads) throws IOException
+	{
+		this(server, address, ioThreads, 4 * ioThreads);
+	}
+
+	/**
+	 * Starts serving the given server.
+	 * @param server The server to call
+	 * @param address Address to listen on; port 0 picks a free port
+	 * @param ioThreads Number of I/O threads, at least 1
+	 * @param workerThreads Number of threads carrying out requests, at least 1; this many calls can wait on the server at once
+	 * @throws IOException If the address cannot be listened on
+	 */
+	public NetworkAuctionServer(AuctionServer server, InetSocketAddress address, int ioThreads, int workerThreads)
+			throws IOException
+	{
+		if (ioThreads < 1)
+			throw new IllegalArgumentException("ioThreads must be positive");
+		if (workerThreads < 1)
+			throw new IllegalArgumentException("workerThreads must be positive");
+
+		this.server = server;
+		AtomicInteger workerCount = new AtomicInteger();
+		this.workers = Executors.newFixedThreadPool(workerThreads, task -> {
+			Thread thread = new Thread(task, "auction-network-worker-" + workerCount.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.acceptor = ServerSocketChannel.open();
+		this.acceptor.bind(address, 1024);
+		this.acceptor.configureBlocking(false);
+
+		this.loops = new IoLoop[ioThreads];
+		for (int i = 0; i < ioThreads; i++)
+			loops[i] = new IoLoop();
+		//The first loop also accepts connections and deals them out to all the loops
+		acceptor.register(loops[0].selector, SelectionKey.OP_ACCEPT);
+		for (int i = 0; i < ioThreads; i++) {
+			Thread thread = new Thread(loops[i], "auction-network-" + i);
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	/**
+	 * @return The address being listened on
+	 */
+	public InetSocketAddress address()
+	{
+		try {
+			return (InetSocketAddress) acceptor.getLocalAddress();
+		}
+		catch (IOException e) {
+			throw new IllegalStateException("Server has been shut down", e);
+		}
+	}
+
+	/**
+	 * @return Number of clients currently connected
+	 */
+	public int connectionCount()
+	{
+		return connections.get();
+	}
+
+	/**
+	 * Stops listening and closes every connection.  Requests already being
+	 * carried out finish, but their responses are not sent.  The served
+	 * <code>AuctionServer</code> keeps running.
+	 */
+	public void shutdown()
+	{
+		running = false;
+		workers.shutdown();
+		for (IoLoop loop : loops)
+			loop.selector.wakeup();
+	}
+
+	/*
+	 * One I/O thread: waits on its selector for connections to accept, read
+	 * or write, takes new connections handed over by the first loop, and
+	 * sends the responses the workers have added.
+	 */
+	private final class IoLoop implements Runnable
+	{
+		final Selector selector;
+		final Queue<SocketChannel> handedOver = new ConcurrentLinkedQueue<SocketChannel>();
+		final Queue<Connection> answered = new ConcurrentLinkedQueue<Connection>();
+
+		// Next loop to hand an accepted connection to; only used by the first loop.
+		private int nextLoop;
+
+		IoLoop() throws IOException
+		{
+			this.selector = Selector.open();
+		}
+
+		@Override
+		public void run()
+		{
+			try {
+				while (running) {
+					selector.select();
+					SocketChannel channel;
+					while ((channel = handedOver.poll()) != null)
+						register(channel);
+					Connection connection;
+					while ((connection = answered.poll()) != null)
+						connection.sendAnswered();
+
+					for (SelectionKey key : selector.selectedKeys()) {
+						if (!key.isValid())
+							continue;
+						try {
+							if (key.isAcceptable())
+								accept();
+							else
+								((Connection) key.attachment()).ready(key);
+						}
+						catch (CancelledKeyException e) {
+							//A worker closed the connection since the select
+							((Connection) key.attachment()).close();
+						}
+					}
+					selector.selectedKeys().clear();
+				}
+			}
+			catch (IOException | ClosedSelectorException e) {
+				//Every connection of this loop goes with it, so report why
+				Thread.currentThread().getUncaughtExceptionHandler().uncaughtException(Thread.currentThread(), e);
+			}
+			finally {
+				close();
+			}
+		}
+
+		private void accept() throws IOException
+		{
+			SocketChannel channel;
+			while ((channel = acceptor.accept()) != null) {
+				IoLoop loop = loops[nextLoop];
+				nextLoop = (nextLoop + 1) % loops.length;
+				if (loop == this) {
+					register(channel);
+				}
+				else {
+					loop.handedOver.add(channel);
+					loop.selector.wakeup();
+				}
+			}
+		}
+
+		private void register(SocketChannel channel)
+		{
+			try {
+				channel.configureBlocking(false);
+				channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+				Connection connection = new Connection(channel, this);
+				connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+				connections.incrementAndGet();
+			}
+			catch (IOException e) {
+				closeQuietly(channel);
+			}
+		}
+
+		private void close()
+		{
+			if (this == loops[0])
+				closeQuietly(acceptor);
+			SocketChannel channel;
+			while ((channel = handedOver.poll()) != null)
+				closeQuietly(channel);
+			for (SelectionKey key : selector.keys()) {
+				if (key.attachment() != null)
+					((Connection) key.attachment()).close();
+			}
+			try {
+				selector.close();
+			}
+			catch (IOException e) {
+				//Nothing left to do with it
+			}
+		}
+	}
+
+	private static void closeQuietly(Channel channel)
+	{
+		try {
+			channel.close();
+		}
+		catch (IOException e) {
+			//Already as closed as it gets
+		}
+	}
+
+	/*
+	 * A client connection.  Its I/O thread reads requests into <code>in</code>
+	 * and queues each complete one in <code>requests</code>.  A worker carries
+	 * them out, writing each response into <code>out</code> and then moving it
+	 * to <code>unsent</code>, where it waits until the socket takes it.
+	 */
+	private final class Connection
+	{
+		private final SocketChannel channel;
+		private final IoLoop loop;
+		private SelectionKey key;
+		private ByteBuffer in = ByteBuffer.allocate(BUFFER_SIZE);
+
+		// Requests read but not yet carried out, and their total size.
+		private final Queue<ByteBuffer> requests = new ConcurrentLinkedQueue<ByteBuffer>();
+		private final AtomicInteger requestBytes = new AtomicInteger();
+
+		// Set while a worker is carrying out the requests; only that worker uses out.
+		private final AtomicBoolean working = new AtomicBoolean();
+		private final Output out = new Output(BUFFER_SIZE);
+
+		// Responses waiting for the socket; guarded by itself.
+		private final Output unsent = new Output(BUFFER_SIZE);
+
+		// Set while the connection is waiting in its loop's answered queue.
+		private final AtomicBoolean queuedToSend = new AtomicBoolean();
+
+		private final AtomicBoolean closed = new AtomicBoolean();
+
+		Connection(SocketChannel channel, IoLoop loop)
+		{
+			this.channel = channel;
+			this.loop = loop;
+		}
+
+		void ready(SelectionKey key)
+		{
+			try {
+				if (key.isReadable())
+					read();
+				if (!closed.get())
+					flush();
+			}
+			catch (IOException | ProtocolException e) {
+				close();
+			}
+		}
+
+		/**
+		 * Run by the I/O thread once a worker has added responses.
+		 */
+		void sendAnswered()
+		{
+			queuedToSend.set(false);
+			if (closed.get())
+				return;
+			try {
+				flush();
+			}
+			catch (IOException e) {
+				close();
+			}
+		}
+
+		private void read() throws IOException, ProtocolException
+		{
+			if (channel.read(in) < 0) {
+				close();
+				return;
+			}
+
+			in.flip();
+			int length;
+			boolean queued = false;
+			while ((length = completeFrame(in)) >= 0) {
+				in.getInt();
+				byte[] frame = new byte[length];
+				in.get(frame);
+				requestBytes.addAndGet(length);
+				requests.add(ByteBuffer.wrap(frame));
+				queued = true;
+			}
+
+			//Make room for the rest of a frame too big for the buffer
+			if (in.position() == 0 && in.limit() == in.capacity()) {
+				ByteBuffer grown = ByteBuffer.allocate(Math.min(in.capacity() * 2, MAX_FRAME + 4));
+				grown.put(in);
+				in = grown;
+			}
+			else {
+				in.compact();
+			}
+
+			if (queued && working.compareAndSet(false, true)) {
+				try {
+					workers.execute(this::work);
+				}
+				catch (RejectedExecutionException e) {
+					//Shutting down
+					close();
+				}
+			}
+		}
+
+		/**
+		 * Run by the I/O thread: writes what the socket takes, and reads more
+		 * requests only while the backlog is small.
+		 */
+		private void flush() throws IOException
+		{
+			int backlog;
+			synchronized (unsent) {
+				ByteBuffer buffer = unsent.buffer();
+				if (buffer.position() > 0) {
+					buffer.flip();
+					channel.write(buffer);
+					buffer.compact();
+				}
+				backlog = buffer.position();
+			}
+
+			int interest = backlog > 0 ? SelectionKey.OP_WRITE : 0;
+			//Once reading stops, the worker's next response brings the connection back here
+			if (backlog + requestBytes.get() < MAX_BACKLOG)
+				interest |= SelectionKey.OP_READ;
+			try {
+				key.interestOps(interest);
+			}
+			catch (CancelledKeyException e) {
+				//A worker closed the connection meanwhile
+				close();
+			}
+		}
+
+		/**
+		 * Run by a worker: carries out the queued requests in order, then lets
+		 * another worker take over if more arrived in the meantime.
+		 */
+		private void work()
+		{
+			try {
+				do {
+					ByteBuffer request;
+					while (!closed.get() && (request = requests.poll()) != null) {
+						requestBytes.addAndGet(-request.capacity());
+						respond(request);
+						answer();
+					}
+					working.set(false);
+				} while (!requests.isEmpty() && working.compareAndSet(false, true));
+			}
+			catch (ProtocolException e) {
+				close();
+			}
+			catch (Throwable e) {
+				//The connection could never be served again
+				close();
+				throw e;
+			}
+		}
+
+		/**
+		 * Run by a worker: moves the response just written to <code>unsent</code>
+		 * and has the I/O thread send it.
+		 */
+		private void answer()
+		{
+			ByteBuffer buffer = out.buffer();
+			buffer.flip();
+			synchronized (unsent) {
+				unsent.put(buffer);
+			}
+			buffer.clear();
+
+			if (queuedToSend.compareAndSet(false, true)) {
+				loop.answered.add(this);
+				loop.selector.wakeup();
+			}
+		}
+
+		/**
+		 * Carries out one request and adds its response to <code>out</code>.
+		 */
+		private void respond(ByteBuffer frame) throws ProtocolException
+		{
+			int requestID = frame.getInt();
+			byte operation = frame.get();
+			out.beginFrame(requestID, OK);
+			try {
+				call(operation, frame);
+				if (out.frameSize() - 4 > MAX_FRAME) {
+					out.abandonFrame();
+					out.beginFrame(requestID, FAILED).putString("Response too large");
+				}
+			}
+			catch (InsufficientFundsException e) {
+				out.abandonFrame();
+				out.beginFrame(requestID, INSUFFICIENT_FUNDS);
+			}
+			catch (BufferUnderflowException e) {
+				throw new ProtocolException("Request too short for operation " + operation);
+			}
+			catch (ThrottledException e) {
+				out.abandonFrame();
+				out.beginFrame(requestID, THROTTLED).putString(e.getMessage());
+			}
+			catch (IOException e) {
+				out.abandonFrame();
+				out.beginFrame(requestID, IO_FAILED).putString(String.valueOf(e));
+			}
+			catch (RuntimeException e) {
+				out.abandonFrame();
+				out.beginFrame(requestID, FAILED).putString(String.valueOf(e));
+			}
+			out.endFrame();
+		}
+
+		private void call(byte operation, ByteBuffer in) throws InsufficientFundsException, IOException
+		{
+			switch (operation) {
+			case REGISTER_PARTICIPANT:
+				out.putInt(server.registerParticipant(getString(in)));
+				break;
+			case PARTICIPANT_ID:
+				out.putInt(server.participantID(getString(in)));
+				break;
+			case SUBSCRIBE:
+				server.subscribe(in.getInt());
+				break;
+			case POLL_EVENTS: {
+				List<BidEvent> events = server.pollEvents(in.getInt());
+				out.putInt(events.size());
+				for (BidEvent event : events)
+					out.putByte((byte) event.type().ordinal()).putInt(event.listingID()).putInt(event.amount());
+				break;
+			}
+			case SUBMIT_ITEM: {
+				int sellerID = in.getInt();
+				String itemName = getString(in);
+				out.putInt(server.submitItem(sellerID, itemName, in.getInt(), in.getInt()));
+				break;
+			}
+			case GET_ITEMS:
+				out.putItems(server.getItems());
+				break;
+			case GET_ITEMS_IF_CHANGED: {
+				ItemSnapshot snapshot = server.getItemsIfChanged(in.getLong());
+				out.putBoolean(snapshot != null);
+				if (snapshot != null)
+					out.putLong(snapshot.version()).putItems(snapshot.items());
+				break;
+			}
+			case ITEMS_PRICED_AT_MOST:
+				out.putItems(server.itemsPricedAtMost(in.getInt(), in.getInt(), in.getInt()));
+				break;
+			case ITEMS_LISTED_BY:
+				out.putItems(server.itemsListedBy(in.getInt(), in.getInt(), in.getInt()));
+				break;
+			case ITEMS_ENDING_WITHIN:
+				out.putItems(server.itemsEndingWithin(in.getInt(), in.getInt(), in.getInt()));
+				break;
+			case SUBMIT_BID:
+				out.putBoolean(server.submitBid(in.getInt(), in.getInt(), in.getInt()));
+				break;
+			case SUBMIT_BIDS: {
+				BidRequest[] bids = new BidRequest[getCount(in, 12)];
+				for (int i = 0; i < bids.length; i++)
+					bids[i] = new BidRequest(in.getInt(), in.getInt(), in.getInt());
+				boolean[] placed = server.submitBids(bids);
+				out.putInt(placed.length);
+				for (boolean bid : placed)
+					out.putBoolean(bid);
+				break;
+			}
+			case SUBMIT_PROXY_BID:
+				out.putBoolean(server.submitProxyBid(in.getInt(), in.getInt(), in.getInt()));
+				break;
+			case CHECK_BID_STATUS:
+				out.putInt(server.checkBidStatus(in.getInt(), in.getInt()));
+				break;
+			case ITEM_PRICE:
+				out.putInt(server.itemPrice(in.getInt()));
+				break;
+			case ITEM_PRICES: {
+				int[] listingIDs = new int[getCount(in, 4)];
+				for (int i = 0; i < listingIDs.length; i++)
+					listingIDs[i] = in.getInt();
+				int[] prices = server.itemPrices(listingIDs);
+				out.putInt(prices.length);
+				for (int price : prices)
+					out.putInt(price);
+				break;
+			}
+			case ITEM_UNBID:
+				out.putBoolean(server.itemUnbid(in.getInt()));
+				break;
+			case PAY_FOR_ITEM:
+				out.putString(server.payForItem(in.getInt(), in.getInt(), in.getInt()));
+				break;
+			case STATS: {
+				AuctionStats stats = server.stats();
+				out.putInt(stats.getSoldItemsCount()).putInt(stats.getRevenue()).putInt(stats.getUncollectedRevenue());
+				break;
+			}
+			case OPEN_JOURNAL:
+				server.openJournal(new File(getString(in)), in.getLong());
+				break;
+			case CHECKPOINT:
+				server.checkpoint();
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown operation " + operation);
+			}
+		}
+
+		void close()
+		{
+			if (closed.compareAndSet(false, true)) {
+				connections.decrementAndGet();
+				closeQuietly(channel);
+			}
+		}
+	}
+
+	/**
+	 * Serves a new server until the process is killed.
+	 * Arguments: [port] [I/O threads] [synchronized|lockfree|sharded|sequenced] [worker threads]
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException
+	{
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : 4330;
+		int ioThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		AuctionServer server = LoadGenerator.newServer(args.length > 2 ? args[2] : "synchronized");
+		int workerThreads = args.length > 3 ? Integer.parseInt(args[3]) : 4 * ioThreads;
+
+		NetworkAuctionServer network = new NetworkAuctionServer(server, new InetSocketAddress(port), ioThreads, workerThreads);
+		System.out.println("Serving on " + network.address() + " with " + ioThreads + " I/O threads and "
+				+ workerThreads + " workers");
+		//The I/O and worker threads are daemons, so keep the JVM up
+		Thread.currentThread().join();
+	}
+}
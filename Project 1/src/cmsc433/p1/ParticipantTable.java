@@ -0,0 +1,211 @@
+package cmsc433.p1;
+
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Interns seller and bidder names to compact participant IDs and stores each
+ * participant's counters in arrays indexed by that ID.
+ *
+ * Names are hashed once, when a participant registers; afterwards the server
+ * works with the ID alone.  IDs are handed out densely from 0 and are shared by
+ * sellers and bidders.  Reads never lock.
+ */
+class ParticipantTable
+{
+	/**
+	 * Highest participant ID that fits into a listing's packed bid word.
+	 */
+	static final int MAX_ID = (1 << 29) - 2;
+
+	private static final int CHUNK_BITS = 10;
+	private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+	private static class Chunk
+	{
+		final AtomicReferenceArray<String> names = new AtomicReferenceArray<String>(CHUNK_SIZE);
+		// Items currently up for bidding, per seller.
+		final AtomicIntegerArray items = new AtomicIntegerArray(CHUNK_SIZE);
+		// Listings on which the participant holds the highest open bid.
+		final AtomicIntegerArray bids = new AtomicIntegerArray(CHUNK_SIZE);
+		// 1 if the participant failed to pay for an item it won.
+		final AtomicIntegerArray blacklisted = new AtomicIntegerArray(CHUNK_SIZE);
+		// Listings on which the participant may hold the highest bid, created on first bid.
+		final AtomicReferenceArray<Set<Integer>> held = new AtomicReferenceArray<Set<Integer>>(CHUNK_SIZE);
+		// Undelivered events, or null if the participant has not subscribed.
+		final AtomicReferenceArray<Queue<BidEvent>> events = new AtomicReferenceArray<Queue<BidEvent>>(CHUNK_SIZE);
+	}
+
+	private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+	private volatile Chunk[] chunks = new Chunk[16];
+	private volatile int count = 0;
+
+	// Told about each new participant before its ID is handed out, while registration is locked.
+	private volatile ObjIntConsumer<String> registered;
+
+	/**
+	 * @return The participant ID for the name, registering it if it is new
+	 */
+	int register(String name)
+	{
+		Integer id = ids.get(name);
+		if (id != null)
+			return id;
+
+		synchronized (this) {
+			id = ids.get(name);
+			if (id != null)
+				return id;
+
+			int next = count;
+			if (next > MAX_ID)
+				throw new IllegalStateException("Too many participants");
+			int index = next >>> CHUNK_BITS;
+			Chunk[] current = chunks;
+			if (index >= current.length)
+				current = Arrays.copyOf(current, current.length * 2);
+			if (current[index] == null)
+				current[index] = new Chunk();
+			current[index].names.set(next & CHUNK_MASK, name);
+			chunks = current;
+			ObjIntConsumer<String> listener = registered;
+			if (listener != null)
+				listener.accept(name, next);
+			count = next + 1;
+			ids.put(name, next);
+			return next;
+		}
+	}
+
+	/**
+	 * Sets the callback told about each new participant, in ID order.
+	 */
+	void onRegister(ObjIntConsumer<String> listener)
+	{
+		this.registered = listener;
+	}
+
+	/**
+	 * @return The participant ID for the name, or -1 if it has not registered
+	 */
+	int id(String name)
+	{
+		Integer id = ids.get(name);
+		return id == null ? -1 : id;
+	}
+
+	/**
+	 * @return The number of registered participants; their IDs are 0 up to it
+	 */
+	int count()
+	{
+		return count;
+	}
+
+	/**
+	 * @return True if the ID belongs to a registered participant
+	 */
+	boolean exists(int id)
+	{
+		return id >= 0 && id < count;
+	}
+
+	String name(int id)
+	{
+		return chunk(id).names.get(id & CHUNK_MASK);
+	}
+
+	int items(int id)
+	{
+		return chunk(id).items.get(id & CHUNK_MASK);
+	}
+
+	void setItems(int id, int items)
+	{
+		chunk(id).items.set(id & CHUNK_MASK, items);
+	}
+
+	boolean compareAndSetItems(int id, int expect, int update)
+	{
+		return chunk(id).items.compareAndSet(id & CHUNK_MASK, expect, update);
+	}
+
+	void addItems(int id, int delta)
+	{
+		chunk(id).items.addAndGet(id & CHUNK_MASK, delta);
+	}
+
+	int bids(int id)
+	{
+		return chunk(id).bids.get(id & CHUNK_MASK);
+	}
+
+	void setBids(int id, int bids)
+	{
+		chunk(id).bids.set(id & CHUNK_MASK, bids);
+	}
+
+	boolean compareAndSetBids(int id, int expect, int update)
+	{
+		return chunk(id).bids.compareAndSet(id & CHUNK_MASK, expect, update);
+	}
+
+	void addBids(int id, int delta)
+	{
+		chunk(id).bids.addAndGet(id & CHUNK_MASK, delta);
+	}
+
+	boolean blacklisted(int id)
+	{
+		return chunk(id).blacklisted.get(id & CHUNK_MASK) != 0;
+	}
+
+	void blacklist(int id)
+	{
+		chunk(id).blacklisted.set(id & CHUNK_MASK, 1);
+	}
+
+	/**
+	 * @return IDs of the listings on which the participant may hold the highest
+	 * bid.  Kept up to date after each bid, so it can briefly include listings
+	 * the participant has just lost; callers must check the listing itself.
+	 */
+	Set<Integer> held(int id)
+	{
+		AtomicReferenceArray<Set<Integer>> held = chunk(id).held;
+		Set<Integer> listings = held.get(id & CHUNK_MASK);
+		if (listings == null) {
+			held.compareAndSet(id & CHUNK_MASK, null, ConcurrentHashMap.<Integer>newKeySet());
+			listings = held.get(id & CHUNK_MASK);
+		}
+		return listings;
+	}
+
+	/**
+	 * Starts queueing events for the participant.
+	 */
+	void subscribe(int id)
+	{
+		chunk(id).events.compareAndSet(id & CHUNK_MASK, null, new ConcurrentLinkedQueue<BidEvent>());
+	}
+
+	/**
+	 * @return The participant's event queue, or null if it has not subscribed
+	 */
+	Queue<BidEvent> events(int id)
+	{
+		return chunk(id).events.get(id & CHUNK_MASK);
+	}
+
+	private Chunk chunk(int id)
+	{
+		return chunks[id >>> CHUNK_BITS];
+	}
+}
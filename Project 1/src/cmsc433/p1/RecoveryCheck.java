@@ -0,0 +1,78 @@
+package cmsc433.p1;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks that a journaled server of each kind comes back after a restart with
+ * the same listings, prices and lookups it had before.  Prints what differs
+ * and exits with status 1 if anything does.
+ */
+public class RecoveryCheck
+{
+	private static final String[] KINDS = {"synchronized", "lockfree", "sharded", "sequenced"};
+
+	private static int failures = 0;
+
+	public static void main(String[] args) throws IOException
+	{
+		for (String kind : KINDS)
+			check(kind);
+
+		System.out.println(failures == 0 ? "Recovery check passed" : failures + " recovery checks failed");
+		System.exit(failures == 0 ? 0 : 1);
+	}
+
+	private static void check(String kind) throws IOException
+	{
+		File directory = Files.createTempDirectory("auction-recovery").toFile();
+		File journal = new File(directory, "journal");
+		try {
+			AuctionServer before = LoadGenerator.newServer(kind);
+			before.openJournal(journal);
+			int unbid = before.submitItem("Seller", "unbid", 5, 60000);
+			int bid = before.submitItem("Seller", "bid", 5, 60000);
+			before.submitBid("Bidder", bid, 7);
+			List<Integer> pricedBefore = listingIDs(before.itemsPricedAtMost(100, 0, 10));
+			before.shutdown();
+
+			//Recover once from the journal alone, then again from the checkpoint taken on recovery
+			for (int restart = 1; restart <= 2; restart++) {
+				AuctionServer after = LoadGenerator.newServer(kind);
+				after.openJournal(journal);
+				after.checkpoint();
+
+				expect(kind + " restart " + restart + " items", listingIDs(after.getItems()), listingIDs(before.getItems()));
+				expect(kind + " restart " + restart + " itemsPricedAtMost", listingIDs(after.itemsPricedAtMost(100, 0, 10)), pricedBefore);
+				expect(kind + " restart " + restart + " unbid price", after.itemPrice(unbid), 5);
+				expect(kind + " restart " + restart + " bid price", after.itemPrice(bid), 7);
+				expect(kind + " restart " + restart + " itemsListedBy", listingIDs(after.itemsListedBy("Seller", 0, 10)), pricedBefore);
+				after.shutdown();
+			}
+		}
+		finally {
+			for (File file : directory.listFiles())
+				file.delete();
+			directory.delete();
+		}
+	}
+
+	private static List<Integer> listingIDs(List<Item> items)
+	{
+		List<Integer> listingIDs = new ArrayList<Integer>();
+		for (Item item : items)
+			listingIDs.add(item.listingID());
+		return listingIDs;
+	}
+
+	private static void expect(String what, Object actual, Object expected)
+	{
+		if (!actual.equals(expected)) {
+			System.out.println(what + ": expected " + expected + ", got " + actual);
+			failures++;
+		}
+	}
+}
@@ -0,0 +1,429 @@
+package cmsc433.p1;
+
+import static cmsc433.p1.AuctionProtocol.*;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * An <code>AuctionServer</code> that lives in another process, reached
+ * through a <code>NetworkAuctionServer</code>.  It can be handed to
+ * <code>Sellers</code> and <code>Bidders</code> in place of a local server.
+ *
+ * All calls share one connection.  A call sends its request and waits for the
+ * response, but calls from different threads do not wait for each other: their
+ * requests are pipelined and a reader thread hands each response to its
+ * caller.  Participant IDs are looked up once per name and remembered, and
+ * <code>getItemSnapshot</code> only transfers the items when they have changed.
+ *
+ * A lost connection makes every call throw <code>UncheckedIOException</code>,
+ * and calls the served server turns away throw <code>ThrottledException</code>.
+ * Lock and method usage are not transferred; ask the served server.  The
+ * served server also keeps the journal, in files on its own machine.
+ */
+public class RemoteAuctionServer extends AuctionServer
+{
+	private static final int BUFFER_SIZE = 4096;
+
+	private final SocketChannel channel;
+
+	// Requests waiting to be written; guarded by itself, which also keeps frames from interleaving.
+	private final Output requests = new Output(BUFFER_SIZE);
+
+	private final AtomicInteger nextRequestID = new AtomicInteger();
+	private final Map<Integer, CompletableFuture<ByteBuffer>> pending = new ConcurrentHashMap<Integer, CompletableFuture<ByteBuffer>>();
+	private final Map<String, Integer> participantIDs = new ConcurrentHashMap<String, Integer>();
+
+	// Why the connection was lost, once it has been.
+	private volatile IOException failure;
+
+	// The last item snapshot received, returned again while the items are unchanged.
+	private volatile ItemSnapshot snapshot;
+
+	/**
+	 * Connects to a <code>NetworkAuctionServer</code>.
+	 * @param address Address the server listens on
+	 * @throws IOException If the server cannot be reached
+	 */
+	public RemoteAuctionServer(InetSocketAddress address) throws IOException
+	{
+		super(new ParticipantTable());
+		this.channel = SocketChannel.open(address);
+		this.channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+
+		Thread reader = new Thread(this::readResponses, "auction-remote-" + address.getPort());
+		reader.setDaemon(true);
+		reader.start();
+	}
+
+	@Override
+	public int registerParticipant(String name)
+	{
+		Integer known = participantIDs.get(name);
+		if (known != null)
+			return known;
+
+		int participantID = call(REGISTER_PARTICIPANT, out -> out.putString(name)).getInt();
+		participantIDs.put(name, participantID);
+		return participantID;
+	}
+
+	@Override
+	int participantID(String name)
+	{
+		Integer known = participantIDs.get(name);
+		if (known != null)
+			return known;
+
+		int participantID = call(PARTICIPANT_ID, out -> out.putString(name)).getInt();
+		if (participantID >= 0)
+			participantIDs.put(name, participantID);
+		return participantID;
+	}
+
+	@Override
+	public void subscribe(int participantID)
+	{
+		call(SUBSCRIBE, out -> out.putInt(participantID));
+	}
+
+	@Override
+	public List<BidEvent> pollEvents(int participantID)
+	{
+		ByteBuffer in = call(POLL_EVENTS, out -> out.putInt(participantID));
+		int count = getCount(in, 9);
+		List<BidEvent> events = new ArrayList<BidEvent>(count);
+		BidEvent.Type[] types = BidEvent.Type.values();
+		for (int i = 0; i < count; i++)
+			events.add(new BidEvent(types[in.get()], in.getInt(), in.getInt()));
+		return events;
+	}
+
+	@Override
+	public int submitItem(int sellerID, String itemName, int lowestBiddingPrice, int biddingDurationMs)
+	{
+		return call(SUBMIT_ITEM, out -> out.putInt(sellerID).putString(itemName).putInt(lowestBiddingPrice)
+				.putInt(biddingDurationMs)).getInt();
+	}
+
+	@Override
+	public List<Item> getItems()
+	{
+		return getItemList(call(GET_ITEMS, out -> {}));
+	}
+
+	@Override
+	public ItemSnapshot getItemSnapshot()
+	{
+		ItemSnapshot last = snapshot;
+		ItemSnapshot changed = getItemsIfChanged(last == null ? -1 : last.version());
+		return changed != null ? changed : last;
+	}
+
+	@Override
+	public ItemSnapshot getItemsIfChanged(long version)
+	{
+		ByteBuffer in = call(GET_ITEMS_IF_CHANGED, out -> out.putLong(version));
+		if (!getBoolean(in))
+			return null;
+
+		ItemSnapshot changed = ItemSnapshot.of(in.getLong(), getItemList(in));
+		snapshot = changed;
+		return changed;
+	}
+
+	@Override
+	public List<Item> itemsPricedAtMost(int maxPrice, int offset, int limit)
+	{
+		return getItemList(call(ITEMS_PRICED_AT_MOST, out -> out.putInt(maxPrice).putInt(offset).putInt(limit)));
+	}
+
+	@Override
+	public List<Item> itemsListedBy(int sellerID, int offset, int limit)
+	{
+		return getItemList(call(ITEMS_LISTED_BY, out -> out.putInt(sellerID).putInt(offset).putInt(limit)));
+	}
+
+	@Override
+	public List<Item> itemsEndingWithin(int withinMs, int offset, int limit)
+	{
+		return getItemList(call(ITEMS_ENDING_WITHIN, out -> out.putInt(withinMs).putInt(offset).putInt(limit)));
+	}
+
+	@Override
+	public boolean submitBid(int bidderID, int listingID, int biddingAmount)
+	{
+		return getBoolean(call(SUBMIT_BID, out -> out.putInt(bidderID).putInt(listingID).putInt(biddingAmount)));
+	}
+
+	@Override
+	public boolean[] submitBids(BidRequest[] bids)
+	{
+		ByteBuffer in = call(SUBMIT_BIDS, out -> {
+			out.putInt(bids.length);
+			for (BidRequest bid : bids)
+				out.putInt(bid.bidderID()).putInt(bid.listingID()).putInt(bid.biddingAmount());
+		});
+		boolean[] placed = new boolean[getCount(in, 1)];
+		for (int i = 0; i < placed.length; i++)
+			placed[i] = getBoolean(in);
+		return placed;
+	}
+
+	@Override
+	public boolean submitProxyBid(int bidderID, int listingID, int maxAmount)
+	{
+		return getBoolean(call(SUBMIT_PROXY_BID, out -> out.putInt(bidderID).putInt(listingID).putInt(maxAmount)));
+	}
+
+	@Override
+	public int checkBidStatus(int bidderID, int listingID)
+	{
+		return call(CHECK_BID_STATUS, out -> out.putInt(bidderID).putInt(listingID)).getInt();
+	}
+
+	@Override
+	public int itemPrice(int listingID)
+	{
+		return call(ITEM_PRICE, out -> out.putInt(listingID)).getInt();
+	}
+
+	@Override
+	public int[] itemPrices(int[] listingIDs)
+	{
+		ByteBuffer in = call(ITEM_PRICES, out -> {
+			out.putInt(listingIDs.length);
+			for (int listingID : listingIDs)
+				out.putInt(listingID);
+		});
+		int[] prices = new int[getCount(in, 4)];
+		for (int i = 0; i < prices.length; i++)
+			prices[i] = in.getInt();
+		return prices;
+	}
+
+	@Override
+	public boolean itemUnbid(int listingID)
+	{
+		return getBoolean(call(ITEM_UNBID, out -> out.putInt(listingID)));
+	}
+
+	@Override
+	public String payForItem(int bidderID, int listingID, int amount) throws InsufficientFundsException
+	{
+		ByteBuffer in = send(PAY_FOR_ITEM, out -> out.putInt(bidderID).putInt(listingID).putInt(amount));
+		if (in.get(in.position()) == INSUFFICIENT_FUNDS)
+			throw new InsufficientFundsException();
+		return getString(expectOk(in));
+	}
+
+	@Override
+	public AuctionStats stats()
+	{
+		ByteBuffer in = call(STATS, out -> {});
+		return new AuctionStats(in.getInt(), in.getInt(), in.getInt());
+	}
+
+	/**
+	 * @return An empty list; ask the served server instead
+	 */
+	@Override
+	public List<LockUsage> lockUsage()
+	{
+		return new ArrayList<LockUsage>();
+	}
+
+	/**
+	 * Closes the connection.  Calls still waiting for a response, and any
+	 * made afterwards, throw <code>UncheckedIOException</code>.  The served
+	 * server keeps running.
+	 */
+	@Override
+	public void shutdown()
+	{
+		try {
+			channel.close();
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Has the served server recover from and keep a journal, as
+	 * <code>AuctionServer.openJournal</code> does.
+	 * @param file The journal file, a path on the served server's machine
+	 * @throws IOException If the served server cannot read or open the journal
+	 * @throws IllegalStateException If the served server has already been used or journaled
+	 */
+	@Override
+	public void openJournal(File file, long checkpointIntervalMs) throws IOException
+	{
+		expectWritten(send(OPEN_JOURNAL, out -> out.putString(file.getPath()).putLong(checkpointIntervalMs)));
+	}
+
+	/**
+	 * Has the served server take a checkpoint.
+	 * @throws IOException If the served server cannot write the checkpoint
+	 * @throws IllegalStateException If the served server is not journaled
+	 */
+	@Override
+	public void checkpoint() throws IOException
+	{
+		expectWritten(send(CHECKPOINT, out -> {}));
+	}
+
+	/**
+	 * Checks the response of a call that writes files on the served server.
+	 */
+	private static void expectWritten(ByteBuffer in) throws IOException
+	{
+		if (in.get(in.position()) == IO_FAILED) {
+			in.get();
+			throw new IOException("Server failed: " + getString(in));
+		}
+		expectOk(in);
+	}
+
+	/**
+	 * Makes a call that can only succeed or fail.
+	 * @return The results of the call
+	 */
+	private ByteBuffer call(byte operation, Consumer<Output> arguments)
+	{
+		return expectOk(send(operation, arguments));
+	}
+
+	private static ByteBuffer expectOk(ByteBuffer in)
+	{
+		byte status = in.get();
+		if (status == THROTTLED)
+			throw new ThrottledException(getString(in));
+		if (status != OK)
+			throw new IllegalStateException(status == FAILED ? "Server failed: " + getString(in) : "Unexpected status " + status);
+		return in;
+	}
+
+	/**
+	 * Sends a request and waits for its response.
+	 * @return The response, positioned at its status
+	 */
+	private ByteBuffer send(byte operation, Consumer<Output> arguments)
+	{
+		int requestID = nextRequestID.getAndIncrement();
+		CompletableFuture<ByteBuffer> response = new CompletableFuture<ByteBuffer>();
+		pending.put(requestID, response);
+		//The reader fails the calls pending when the connection is lost; this one may have just missed that
+		if (failure != null) {
+			pending.remove(requestID);
+			throw new UncheckedIOException(failure);
+		}
+
+		try {
+			synchronized (requests) {
+				requests.beginFrame(requestID, operation);
+				try {
+					arguments.accept(requests);
+					//The server would drop the connection over it
+					if (requests.frameSize() - 4 > MAX_FRAME)
+						throw new IllegalArgumentException("Request too large: " + (requests.frameSize() - 4) + " bytes");
+				}
+				catch (RuntimeException e) {
+					//Leave nothing of the frame behind for the next request
+					requests.abandonFrame();
+					pending.remove(requestID);
+					throw e;
+				}
+				requests.endFrame();
+				ByteBuffer buffer = requests.buffer();
+				buffer.flip();
+				try {
+					while (buffer.hasRemaining())
+						channel.write(buffer);
+				}
+				finally {
+					buffer.clear();
+				}
+			}
+		}
+		catch (IOException e) {
+			pending.remove(requestID);
+			throw new UncheckedIOException(e);
+		}
+
+		try {
+			return response.join();
+		}
+		catch (CompletionException e) {
+			throw (RuntimeException) e.getCause();
+		}
+	}
+
+	/**
+	 * Run by the reader thread: hands each response to the call waiting for it
+	 * until the connection is lost, then fails the calls still waiting.
+	 */
+	private void readResponses()
+	{
+		ByteBuffer in = ByteBuffer.allocate(BUFFER_SIZE);
+		try {
+			while (true) {
+				if (channel.read(in) < 0)
+					throw new EOFException("Server closed the connection");
+
+				in.flip();
+				int length;
+				while ((length = completeFrame(in)) >= 0) {
+					in.getInt();
+					byte[] frame = new byte[length];
+					in.get(frame);
+					ByteBuffer response = ByteBuffer.wrap(frame);
+					CompletableFuture<ByteBuffer> call = pending.remove(response.getInt());
+					if (call != null)
+						call.complete(response);
+				}
+
+				if (in.position() == 0 && in.limit() == in.capacity()) {
+					ByteBuffer grown = ByteBuffer.allocate(Math.min(in.capacity() * 2, MAX_FRAME + 4));
+					grown.put(in);
+					in = grown;
+				}
+				else {
+					in.compact();
+				}
+			}
+		}
+		catch (IOException e) {
+			failure = e;
+		}
+		catch (ProtocolException e) {
+			failure = new IOException(e.getMessage());
+		}
+
+		try {
+			channel.close();
+		}
+		catch (IOException e) {
+			//Already lost
+		}
+		for (Integer requestID : pending.keySet()) {
+			CompletableFuture<ByteBuffer> call = pending.remove(requestID);
+			if (call != null)
+				call.completeExceptionally(new UncheckedIOException(failure));
+		}
+	}
+}
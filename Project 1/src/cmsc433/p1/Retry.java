@@ -0,0 +1,79 @@
+package cmsc433.p1;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * How the simulated sellers and bidders deal with a server that turns calls
+ * away with a <code>ThrottledException</code>.  Calls they cannot do without
+ * are made again until the server takes them, yielding in between; events
+ * are simply left for the next poll.
+ */
+final class Retry
+{
+	/**
+	 * A server call that may throw a checked exception besides being throttled.
+	 */
+	interface Call<T, E extends Exception>
+	{
+		T call() throws E;
+	}
+
+	private Retry()
+	{
+	}
+
+	/**
+	 * Makes the call until the server stops turning it away.
+	 * @return What the call returned
+	 * @throws E Whatever the call throws other than <code>ThrottledException</code>
+	 */
+	static <T, E extends Exception> T untilAdmitted(Call<T, E> call) throws E
+	{
+		while (true) {
+			try {
+				return call.call();
+			}
+			catch (ThrottledException e) {
+				Thread.yield();
+			}
+		}
+	}
+
+	/**
+	 * Registers a participant, which can do nothing without its ID.
+	 * @return The participant's ID
+	 */
+	static int register(AuctionServer server, String name)
+	{
+		return untilAdmitted(() -> server.registerParticipant(name));
+	}
+
+	/**
+	 * Registers a participant and subscribes it to its <code>BidEvents</code>.
+	 * @return The participant's ID
+	 */
+	static int registerAndSubscribe(AuctionServer server, String name)
+	{
+		int participantID = register(server, name);
+		untilAdmitted(() -> {
+			server.subscribe(participantID);
+			return null;
+		});
+		return participantID;
+	}
+
+	/**
+	 * @return The participant's events since the last poll, or none if the
+	 * server is busy, in which case they wait for the next poll
+	 */
+	static List<BidEvent> pollEvents(AuctionServer server, int participantID)
+	{
+		try {
+			return server.pollEvents(participantID);
+		}
+		catch (ThrottledException e) {
+			return Collections.emptyList();
+		}
+	}
+}
@@ -11,6 +11,9 @@ public class Seller implements Client
 	private String name;
 	private int cycles;
 	private int maxSleepTimeMs;
+	private int maxOpeningPrice = 100;
+	private int minBiddingDurationMs = 100;
+	private int maxBiddingDurationMs = 200;
 	
 	private List<String> items;
 	private Random rand;
@@ -36,6 +39,23 @@ public class Seller implements Client
         this.server = server;
 	}
 	
+	/**
+	 * Creates a seller whose items open at a random price below
+	 * <code>maxOpeningPrice</code> and are up for bidding for a random time
+	 * from <code>minBiddingDurationMs</code> up to but excluding
+	 * <code>maxBiddingDurationMs</code>.
+	 */
+	public Seller(AuctionServer server, String name, int cycles, int maxSleepTimeMs,
+			int maxOpeningPrice, int minBiddingDurationMs, int maxBiddingDurationMs, long randomSeed)
+	{
+		this(server, name, cycles, maxSleepTimeMs, randomSeed);
+		if (maxOpeningPrice < 1 || maxBiddingDurationMs <= minBiddingDurationMs)
+			throw new IllegalArgumentException("Empty opening price or bidding duration range");
+		this.maxOpeningPrice = maxOpeningPrice;
+		this.minBiddingDurationMs = minBiddingDurationMs;
+		this.maxBiddingDurationMs = maxBiddingDurationMs;
+	}
+	
 	@Override
 	public String name()
 	{
@@ -45,12 +65,23 @@ public class Seller implements Client
 	@Override
     public void run()
     {			
+		int id = Retry.register(server, this.name());
 		for (int i = 0; i < this.cycles && this.items.size() > 0; ++i)
 	    {
 	    	int index = this.rand.nextInt(this.items.size());
 	    	String item = this.items.get(index);
 	    	
-	    	int listingID = server.submitItem(this.name(), item, this.rand.nextInt(100), this.rand.nextInt(100) + 100);  
+	    	int listingID;
+	    	try
+	    	{
+	    		listingID = server.submitItem(id, item, this.rand.nextInt(this.maxOpeningPrice),
+	    				this.rand.nextInt(this.maxBiddingDurationMs - this.minBiddingDurationMs) + this.minBiddingDurationMs);
+	    	}
+	    	catch (ThrottledException e)
+	    	{
+	    		// The server is busy: try again next cycle
+	    		listingID = -1;
+	    	}
 	    	
 	    	if (listingID != -1)
 	    	{
@@ -0,0 +1,549 @@
+package cmsc433.p1;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * An <code>AuctionServer</code> whose listings are changed by a single writer
+ * thread.  Calls that list items, bid or pay are put on a preallocated ring of
+ * requests in the order they arrive, and the caller waits while the writer
+ * applies them one after another.  Bidder threads therefore never queue up on
+ * the server's locks, and the requests are applied in one well-defined order.
+ *
+ * Closing a listing is a request like any other: the expiry thread, and a
+ * bidder checking on a listing whose time has run out, hand it to the writer
+ * rather than closing it themselves.  Everything else reads published state
+ * directly: the item list is an immutable snapshot and bids are read from
+ * their volatile bid words.
+ *
+ * The writer applies requests through an ordinary <code>AuctionServer</code>,
+ * so it still takes that server's locks.  With every change made by the one
+ * thread they are never contended, and the readers still need what they
+ * publish.  That server also keeps the journal, if one is opened, so the
+ * writer journals the requests as it applies them.
+ */
+public class SequencedAuctionServer extends AuctionServer
+{
+	private static final int SUBMIT_ITEM = 0;
+	private static final int SUBMIT_BID = 1;
+	private static final int SUBMIT_BIDS = 2;
+	private static final int SUBMIT_PROXY_BID = 3;
+	private static final int PAY_FOR_ITEM = 4;
+	private static final int CLOSE_LISTING = 5;
+
+	// How many times a waiting thread spins, then yields, before it parks.  Spinning only
+	// helps if the thread it waits for is running on another processor.
+	private static final int SPINS = Runtime.getRuntime().availableProcessors() > 1 ? 100 : 0;
+	private static final int YIELDS = 20;
+	// Longest a caller waiting for a free slot sleeps between looks, in nanoseconds.
+	private static final long MAX_SLOT_WAIT_NANOS = 1000000L;
+
+	// Set in the ticket count once shutdown has stopped taking requests.
+	private static final long STOPPED = Long.MIN_VALUE;
+
+	/*
+	 * A request slot in the ring.  Its sequence says who may touch it: while it
+	 * is free it holds the ticket of the next request to use it, the caller sets
+	 * it to ticket + 1 once the request is filled in, the writer to ticket + 2
+	 * once the result is filled in, and the caller frees it for the next lap
+	 * (ticket + ring size) once it has read the result.
+	 */
+	private static final class Slot
+	{
+		volatile long sequence;
+		Thread caller;
+
+		int operation;
+		int participantID;
+		int listingID;
+		int amount;
+		int durationMs;
+		Object argument;
+
+		int value;
+		Object result;
+		Throwable failure;
+	}
+
+	/*
+	 * The server the writer applies requests to, sharing this server's
+	 * participants.  Listings it expires are handed to the writer to close.
+	 */
+	private final class Target extends AuctionServer
+	{
+		Target(BidEngine bidEngine, ParticipantTable participants)
+		{
+			super(defaultLockStripes, bidEngine, participants, new AtomicInteger(), 0, 1);
+		}
+
+		@Override
+		void expire(int listingID)
+		{
+			if (!closeListing(listingID))
+				super.expire(listingID);
+		}
+
+		/**
+		 * Called by the writer to close the listing itself.
+		 */
+		void expireNow(int listingID)
+		{
+			super.expire(listingID);
+		}
+	}
+
+	private final Target target;
+
+	private final Slot[] ring;
+	private final int mask;
+
+	// Tickets handed out so far, with STOPPED set once the server is shut down.
+	private final AtomicLong tickets = new AtomicLong();
+
+	private final Thread writer;
+
+	// Set while the writer may be parked waiting for a request.
+	private volatile boolean writerIdle;
+
+	/**
+	 * Creates a server whose ring holds the given number of requests.
+	 * @param ringSize Number of requests that can wait to be applied, a power of two of at least 4
+	 * @param bidEngine How bids are placed
+	 */
+	public SequencedAuctionServer(int ringSize, BidEngine bidEngine)
+	{
+		this(ringSize, bidEngine, new ParticipantTable());
+	}
+
+	private SequencedAuctionServer(int ringSize, BidEngine bidEngine, ParticipantTable participants)
+	{
+		super(participants);
+		if (ringSize < 4 || Integer.bitCount(ringSize) != 1)
+			throw new IllegalArgumentException("ringSize must be a power of two, at least 4");
+
+		this.target = new Target(bidEngine, participants);
+		this.ring = new Slot[ringSize];
+		for (int i = 0; i < ringSize; i++) {
+			ring[i] = new Slot();
+			ring[i].sequence = i;
+		}
+		this.mask = ringSize - 1;
+
+		this.writer = new Thread(this::applyRequests, "auction-sequencer");
+		this.writer.setDaemon(true);
+		this.writer.start();
+	}
+
+	/**
+	 * Registers the participant with the server the writer applies requests
+	 * to, which journals it.  Registering does not touch any listing, so it is
+	 * not sequenced.
+	 */
+	@Override
+	public int registerParticipant(String name)
+	{
+		return target.registerParticipant(name);
+	}
+
+	@Override
+	public int submitItem(int sellerID, String itemName, int lowestBiddingPrice, int biddingDurationMs)
+	{
+		long ticket = takeTicket();
+		if (ticket < 0)
+			return target.submitItem(sellerID, itemName, lowestBiddingPrice, biddingDurationMs);
+
+		Slot slot = slotFor(ticket);
+		slot.operation = SUBMIT_ITEM;
+		slot.participantID = sellerID;
+		slot.argument = itemName;
+		slot.amount = lowestBiddingPrice;
+		slot.durationMs = biddingDurationMs;
+		awaitResult(ticket, slot);
+		int listingID = slot.value;
+		release(ticket, slot);
+		return listingID;
+	}
+
+	@Override
+	public List<Item> getItems()
+	{
+		return target.getItems();
+	}
+
+	@Override
+	public ItemSnapshot getItemSnapshot()
+	{
+		return target.getItemSnapshot();
+	}
+
+	@Override
+	public ItemSnapshot getItemsIfChanged(long version)
+	{
+		return target.getItemsIfChanged(version);
+	}
+
+	@Override
+	public List<Item> itemsPricedAtMost(int maxPrice, int offset, int limit)
+	{
+		return target.itemsPricedAtMost(maxPrice, offset, limit);
+	}
+
+	@Override
+	public List<Item> itemsListedBy(int sellerID, int offset, int limit)
+	{
+		return target.itemsListedBy(sellerID, offset, limit);
+	}
+
+	@Override
+	public List<Item> itemsEndingWithin(int withinMs, int offset, int limit)
+	{
+		return target.itemsEndingWithin(withinMs, offset, limit);
+	}
+
+	@Override
+	public boolean submitBid(int bidderID, int listingID, int biddingAmount)
+	{
+		long ticket = takeTicket();
+		if (ticket < 0)
+			return target.submitBid(bidderID, listingID, biddingAmount);
+
+		Slot slot = slotFor(ticket);
+		slot.operation = SUBMIT_BID;
+		slot.participantID = bidderID;
+		slot.listingID = listingID;
+		slot.amount = biddingAmount;
+		awaitResult(ticket, slot);
+		boolean placed = slot.value != 0;
+		release(ticket, slot);
+		return placed;
+	}
+
+	/**
+	 * Attempt to submit a batch of bids.  The whole batch is one request, so
+	 * the writer places it without bids from other callers in between.
+	 * @param bids The bids to submit
+	 * @return For each bid, true if it was successfully placed, false otherwise
+	 */
+	@Override
+	public boolean[] submitBids(BidRequest[] bids)
+	{
+		long ticket = takeTicket();
+		if (ticket < 0)
+			return target.submitBids(bids);
+
+		Slot slot = slotFor(ticket);
+		slot.operation = SUBMIT_BIDS;
+		slot.argument = bids;
+		awaitResult(ticket, slot);
+		boolean[] placed = (boolean[]) slot.result;
+		release(ticket, slot);
+		return placed;
+	}
+
+	@Override
+	public boolean submitProxyBid(int bidderID, int listingID, int maxAmount)
+	{
+		long ticket = takeTicket();
+		if (ticket < 0)
+			return target.submitProxyBid(bidderID, listingID, maxAmount);
+
+		Slot slot = slotFor(ticket);
+		slot.operation = SUBMIT_PROXY_BID;
+		slot.participantID = bidderID;
+		slot.listingID = listingID;
+		slot.amount = maxAmount;
+		awaitResult(ticket, slot);
+		boolean placed = slot.value != 0;
+		release(ticket, slot);
+		return placed;
+	}
+
+	@Override
+	public int checkBidStatus(int bidderID, int listingID)
+	{
+		//Have the writer close an expired listing, so that only the check itself is left
+		if (target.awaitingClose(listingID))
+			closeListing(listingID);
+		return target.checkBidStatus(bidderID, listingID);
+	}
+
+	@Override
+	public int itemPrice(int listingID)
+	{
+		return target.itemPrice(listingID);
+	}
+
+	@Override
+	public int[] itemPrices(int[] listingIDs)
+	{
+		return target.itemPrices(listingIDs);
+	}
+
+	@Override
+	public boolean itemUnbid(int listingID)
+	{
+		return target.itemUnbid(listingID);
+	}
+
+	@Override
+	public String payForItem(int bidderID, int listingID, int amount) throws InsufficientFundsException
+	{
+		long ticket = takeTicket();
+		if (ticket < 0)
+			return target.payForItem(bidderID, listingID, amount);
+
+		Slot slot = slotFor(ticket);
+		slot.operation = PAY_FOR_ITEM;
+		slot.participantID = bidderID;
+		slot.listingID = listingID;
+		slot.amount = amount;
+		awaitResult(ticket, slot);
+		boolean insufficient = slot.value != 0;
+		String itemName = (String) slot.result;
+		release(ticket, slot);
+
+		//The writer has already blacklisted the bidder; the exception is raised in the caller's thread
+		if (insufficient)
+			throw new InsufficientFundsException();
+		return itemName;
+	}
+
+	@Override
+	public AuctionStats stats()
+	{
+		return target.stats();
+	}
+
+	@Override
+	public List<LockUsage> lockUsage()
+	{
+		return target.lockUsage();
+	}
+
+	/**
+	 * Applies the requests already made, stops the writer and the server's
+	 * expiry thread.  Calls made after this are applied by the calling thread.
+	 */
+	@Override
+	public void shutdown()
+	{
+		tickets.getAndUpdate(count -> count | STOPPED);
+		LockSupport.unpark(writer);
+		try {
+			writer.join();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		target.shutdown();
+		super.shutdown();
+	}
+
+	@Override
+	public void openJournal(File file, long checkpointIntervalMs) throws IOException
+	{
+		target.openJournal(file, checkpointIntervalMs);
+	}
+
+	@Override
+	public void checkpoint() throws IOException
+	{
+		target.checkpoint();
+	}
+
+	/**
+	 * Has the writer close a listing whose bidding time has run out.
+	 * @return False if the server has been shut down, so the caller must close it
+	 */
+	private boolean closeListing(int listingID)
+	{
+		long ticket = takeTicket();
+		if (ticket < 0)
+			return false;
+
+		Slot slot = slotFor(ticket);
+		slot.operation = CLOSE_LISTING;
+		slot.listingID = listingID;
+		awaitResult(ticket, slot);
+		release(ticket, slot);
+		return true;
+	}
+
+	/**
+	 * Takes the next place in the request order.
+	 * @return The request's ticket, or -1 if the server has been shut down
+	 */
+	private long takeTicket()
+	{
+		long ticket;
+		do {
+			ticket = tickets.get();
+			if (ticket < 0)
+				return -1;
+		} while (!tickets.compareAndSet(ticket, ticket + 1));
+		return ticket;
+	}
+
+	/**
+	 * Waits for the ticket's slot to be freed by the request a lap ahead of it.
+	 * Once spinning and yielding have not helped, the caller sleeps for twice
+	 * as long each time it looks, up to <code>MAX_SLOT_WAIT_NANOS</code>: the
+	 * ring is full, so the writer is the bottleneck and has no use for the
+	 * processor time.
+	 */
+	private Slot slotFor(long ticket)
+	{
+		Slot slot = ring[(int) ticket & mask];
+		long waitNanos = 1000;
+		boolean interrupted = false;
+		for (int i = 0; slot.sequence != ticket; i++) {
+			if (!backOff(i)) {
+				LockSupport.parkNanos(this, waitNanos);
+				waitNanos = Math.min(waitNanos * 2, MAX_SLOT_WAIT_NANOS);
+				interrupted |= Thread.interrupted();
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+		return slot;
+	}
+
+	/**
+	 * Hands a filled in request to the writer and waits until it has been applied.
+	 */
+	private void awaitResult(long ticket, Slot slot)
+	{
+		slot.caller = Thread.currentThread();
+		slot.sequence = ticket + 1;
+		if (writerIdle)
+			LockSupport.unpark(writer);
+
+		//The request is applied regardless, so an interrupt is only passed on once it has been
+		boolean interrupted = false;
+		for (int i = 0; slot.sequence != ticket + 2; i++) {
+			if (!backOff(i)) {
+				LockSupport.park(this);
+				interrupted |= Thread.interrupted();
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	/**
+	 * Frees a slot whose result has been read, rethrowing anything the request threw.
+	 */
+	private void release(long ticket, Slot slot)
+	{
+		Throwable failure = slot.failure;
+		slot.caller = null;
+		slot.argument = null;
+		slot.result = null;
+		slot.failure = null;
+		slot.sequence = ticket + ring.length;
+		if (failure instanceof RuntimeException)
+			throw (RuntimeException) failure;
+		if (failure != null)
+			throw (Error) failure;
+	}
+
+	/**
+	 * Spins or yields for the given attempt at waiting.
+	 * @return False once the thread should block instead
+	 */
+	private static boolean backOff(int attempt)
+	{
+		if (attempt < SPINS)
+			Thread.onSpinWait();
+		else if (attempt < SPINS + YIELDS)
+			Thread.yield();
+		else
+			return false;
+		return true;
+	}
+
+	private void applyRequests()
+	{
+		long next = 0;
+		while (true) {
+			Slot slot = ring[(int) next & mask];
+			if (slot.sequence != next + 1) {
+				//Once shut down, stop after the last ticket handed out
+				long count = tickets.get();
+				if (count < 0 && (count & ~STOPPED) == next)
+					return;
+				awaitRequest(slot, next);
+				continue;
+			}
+
+			try {
+				apply(slot);
+			}
+			catch (RuntimeException | Error e) {
+				slot.failure = e;
+			}
+			Thread caller = slot.caller;
+			slot.sequence = next + 2;
+			LockSupport.unpark(caller);
+			next++;
+		}
+	}
+
+	/**
+	 * Waits for the request with the given ticket, or until the server is shut
+	 * down with no request left to come.  A request whose ticket was taken
+	 * before shutdown is still waited for, parked like any other.
+	 */
+	private void awaitRequest(Slot slot, long ticket)
+	{
+		for (int i = 0; slot.sequence != ticket + 1; i++) {
+			if (tickets.get() == (ticket | STOPPED))
+				return;
+			if (!backOff(i)) {
+				//Callers check writerIdle after publishing, and shutdown unparks, so one of us sees the other
+				writerIdle = true;
+				if (slot.sequence != ticket + 1 && tickets.get() != (ticket | STOPPED))
+					LockSupport.park(this);
+				writerIdle = false;
+				return;
+			}
+		}
+	}
+
+	private void apply(Slot slot)
+	{
+		switch (slot.operation) {
+		case SUBMIT_ITEM:
+			slot.value = target.submitItem(slot.participantID, (String) slot.argument, slot.amount, slot.durationMs);
+			break;
+		case SUBMIT_BID:
+			slot.value = target.submitBid(slot.participantID, slot.listingID, slot.amount) ? 1 : 0;
+			break;
+		case SUBMIT_BIDS:
+			slot.result = target.submitBids((BidRequest[]) slot.argument);
+			break;
+		case SUBMIT_PROXY_BID:
+			slot.value = target.submitProxyBid(slot.participantID, slot.listingID, slot.amount) ? 1 : 0;
+			break;
+		case PAY_FOR_ITEM:
+			try {
+				slot.result = target.payForItem(slot.participantID, slot.listingID, slot.amount);
+				slot.value = 0;
+			}
+			catch (InsufficientFundsException e) {
+				slot.result = null;
+				slot.value = 1;
+			}
+			break;
+		case CLOSE_LISTING:
+			target.expireNow(slot.listingID);
+			break;
+		default:
+			throw new IllegalStateException("Unknown request " + slot.operation);
+		}
+	}
+}
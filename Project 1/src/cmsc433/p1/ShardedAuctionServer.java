@@ -0,0 +1,340 @@
+package cmsc433.p1;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An <code>AuctionServer</code> split into independent shards, each owning
+ * every Nth listing ID with its own item list, locks, indexes, expiry thread
+ * and revenue counters.  Calls about a listing go straight to the shard that
+ * owns it, so bids on different shards never contend.  New listings go to the
+ * shards in turn, so even a single busy seller's listings are spread over all
+ * of them; the router keeps track of which shards each seller has listed on.
+ *
+ * The shards share their participants, so participant IDs, the per-seller and
+ * per-bidder quotas, blacklisting and events work across the whole server; the
+ * quotas and the server capacity are enforced with atomic counters rather than
+ * locks.  Queries spanning several shards merge the shards' results, and are
+ * not atomic across shards.  A journaled server keeps one journal per shard.
+ */
+public class ShardedAuctionServer extends AuctionServer
+{
+	private final AuctionServer[] shards;
+	private final ParticipantTable participants;
+
+	// Counts the listings submitted, to pick the shard the next one goes to.
+	private final AtomicInteger submitted = new AtomicInteger();
+
+	// The shards each seller has listed items on, by seller ID.
+	private final ConcurrentHashMap<Integer, Set<Integer>> sellerShards = new ConcurrentHashMap<Integer, Set<Integer>>();
+
+	private boolean journaled;
+
+	/**
+	 * Creates a server with the given number of shards.
+	 * @param shardCount Number of shards, at least 1
+	 * @param lockStripes Number of listing locks per shard, at least 1
+	 * @param bidEngine How bids are placed
+	 */
+	public ShardedAuctionServer(int shardCount, int lockStripes, BidEngine bidEngine)
+	{
+		this(shardCount, lockStripes, bidEngine, new ParticipantTable());
+	}
+
+	private ShardedAuctionServer(int shardCount, int lockStripes, BidEngine bidEngine, ParticipantTable participants)
+	{
+		super(participants);
+		if (shardCount < 1)
+			throw new IllegalArgumentException("shardCount must be positive");
+
+		this.participants = participants;
+		AtomicInteger activeListings = new AtomicInteger();
+		this.shards = new AuctionServer[shardCount];
+		for (int i = 0; i < shardCount; i++)
+			shards[i] = new AuctionServer(lockStripes, bidEngine, participants, activeListings, i, shardCount);
+	}
+
+	private AuctionServer shardOf(int listingID)
+	{
+		return shards[Math.floorMod(listingID, shards.length)];
+	}
+
+	/**
+	 * Registers the participant through the first shard, which journals the
+	 * participants all the shards share.
+	 */
+	@Override
+	public int registerParticipant(String name)
+	{
+		return shards[0].registerParticipant(name);
+	}
+
+	@Override
+	public int submitItem(int sellerID, String itemName, int lowestBiddingPrice, int biddingDurationMs)
+	{
+		int shard = Math.floorMod(submitted.getAndIncrement(), shards.length);
+		//Recorded first, so the listing is never visible without its seller's shard being known
+		sellerShards.computeIfAbsent(sellerID, id -> ConcurrentHashMap.newKeySet()).add(shard);
+		return shards[shard].submitItem(sellerID, itemName, lowestBiddingPrice, biddingDurationMs);
+	}
+
+	@Override
+	public List<Item> getItems()
+	{
+		return new ArrayList<Item>(getItemSnapshot().items());
+	}
+
+	@Override
+	public ItemSnapshot getItemSnapshot()
+	{
+		ItemSnapshot[] parts = new ItemSnapshot[shards.length];
+		for (int i = 0; i < shards.length; i++)
+			parts[i] = shards[i].getItemSnapshot();
+		return ItemSnapshot.concat(parts);
+	}
+
+	@Override
+	public ItemSnapshot getItemsIfChanged(long version)
+	{
+		long current = 0;
+		for (AuctionServer shard : shards)
+			current += shard.getItemSnapshot().version();
+		return current == version ? null : getItemSnapshot();
+	}
+
+	@Override
+	public List<Item> itemsPricedAtMost(int maxPrice, int offset, int limit)
+	{
+		//Each shard's share of the result is among its first offset + limit matches
+		int wanted = (int) Math.min(Integer.MAX_VALUE, (long) offset + limit);
+		List<Item> found = new ArrayList<Item>();
+		for (AuctionServer shard : shards)
+			found.addAll(shard.itemsPricedAtMost(maxPrice, 0, wanted));
+
+		//Order by price then listing ID, as a single server does; prices are read once as they may change
+		Map<Integer, Item> byID = new HashMap<Integer, Item>();
+		long[] keys = new long[found.size()];
+		for (int i = 0; i < keys.length; i++) {
+			Item item = found.get(i);
+			byID.put(item.listingID(), item);
+			keys[i] = ListingIndex.priceKey(itemPrice(item.listingID()), item.listingID());
+		}
+		Arrays.sort(keys);
+
+		List<Item> page = new ArrayList<Item>();
+		for (int i = offset; i < keys.length && page.size() < limit; i++)
+			page.add(byID.get(ListingIndex.listingOf(keys[i])));
+		return page;
+	}
+
+	@Override
+	public List<Item> itemsListedBy(int sellerID, int offset, int limit)
+	{
+		Set<Integer> listedOn = sellerShards.get(sellerID);
+		if (listedOn == null)
+			return new ArrayList<Item>();
+
+		//Each shard's share of the result is among its first offset + limit matches
+		int wanted = (int) Math.min(Integer.MAX_VALUE, (long) offset + limit);
+		List<Item> found = new ArrayList<Item>();
+		for (int shard : listedOn)
+			found.addAll(shards[shard].itemsListedBy(sellerID, 0, wanted));
+		found.sort((a, b) -> Integer.compare(a.listingID(), b.listingID()));
+		return offset >= found.size() ? new ArrayList<Item>()
+				: new ArrayList<Item>(found.subList(offset, (int) Math.min(found.size(), (long) offset + limit)));
+	}
+
+	@Override
+	public List<Item> itemsEndingWithin(int withinMs, int offset, int limit)
+	{
+		int wanted = (int) Math.min(Integer.MAX_VALUE, (long) offset + limit);
+		List<Item> found = new ArrayList<Item>();
+		for (AuctionServer shard : shards)
+			found.addAll(shard.itemsEndingWithin(withinMs, 0, wanted));
+		found.sort((a, b) -> a.biddingDeadlineNanos() != b.biddingDeadlineNanos()
+				? Long.signum(a.biddingDeadlineNanos() - b.biddingDeadlineNanos())
+				: Integer.compare(a.listingID(), b.listingID()));
+		return offset >= found.size() ? new ArrayList<Item>()
+				: new ArrayList<Item>(found.subList(offset, (int) Math.min(found.size(), (long) offset + limit)));
+	}
+
+	@Override
+	public boolean submitBid(int bidderID, int listingID, int biddingAmount)
+	{
+		return shardOf(listingID).submitBid(bidderID, listingID, biddingAmount);
+	}
+
+	/**
+	 * Attempt to submit a batch of bids.  The batch is split by shard and each
+	 * shard places its part as <code>AuctionServer.submitBids</code> does.
+	 * @param bids The bids to submit
+	 * @return For each bid, true if it was successfully placed, false otherwise
+	 */
+	@Override
+	public boolean[] submitBids(BidRequest[] bids)
+	{
+		int[] shardOf = new int[bids.length];
+		int[] counts = new int[shards.length];
+		for (int i = 0; i < bids.length; i++) {
+			shardOf[i] = Math.floorMod(bids[i].listingID(), shards.length);
+			counts[shardOf[i]]++;
+		}
+
+		boolean[] placed = new boolean[bids.length];
+		for (int s = 0; s < shards.length; s++) {
+			if (counts[s] == 0)
+				continue;
+			BidRequest[] part = new BidRequest[counts[s]];
+			int[] positions = new int[counts[s]];
+			for (int i = 0, k = 0; i < bids.length; i++) {
+				if (shardOf[i] == s) {
+					positions[k] = i;
+					part[k++] = bids[i];
+				}
+			}
+			boolean[] partPlaced = shards[s].submitBids(part);
+			for (int k = 0; k < part.length; k++)
+				placed[positions[k]] = partPlaced[k];
+		}
+		return placed;
+	}
+
+	@Override
+	public boolean submitProxyBid(int bidderID, int listingID, int maxAmount)
+	{
+		return shardOf(listingID).submitProxyBid(bidderID, listingID, maxAmount);
+	}
+
+	@Override
+	public int checkBidStatus(int bidderID, int listingID)
+	{
+		return shardOf(listingID).checkBidStatus(bidderID, listingID);
+	}
+
+	@Override
+	public int itemPrice(int listingID)
+	{
+		return shardOf(listingID).itemPrice(listingID);
+	}
+
+	@Override
+	public int[] itemPrices(int[] listingIDs)
+	{
+		int[] prices = new int[listingIDs.length];
+		for (int i = 0; i < listingIDs.length; i++)
+			prices[i] = shardOf(listingIDs[i]).itemPrice(listingIDs[i]);
+		return prices;
+	}
+
+	@Override
+	public boolean itemUnbid(int listingID)
+	{
+		return shardOf(listingID).itemUnbid(listingID);
+	}
+
+	@Override
+	public String payForItem(int bidderID, int listingID, int amount) throws InsufficientFundsException
+	{
+		AuctionServer owner = shardOf(listingID);
+		try {
+			return owner.payForItem(bidderID, listingID, amount);
+		}
+		catch (InsufficientFundsException e) {
+			//The owning shard has blacklisted the bidder and cancelled its own listings' bids
+			for (AuctionServer shard : shards) {
+				if (shard != owner)
+					shard.cancelBids(bidderID);
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Adds up the shards' statistics.  Each shard's part is taken as of one
+	 * moment, but the shards are read one after another.
+	 * @return The statistics of all the shards together
+	 */
+	@Override
+	public AuctionStats stats()
+	{
+		int sold = 0, revenue = 0, uncollected = 0;
+		for (AuctionServer shard : shards) {
+			AuctionStats stats = shard.stats();
+			sold += stats.getSoldItemsCount();
+			revenue += stats.getRevenue();
+			uncollected += stats.getUncollectedRevenue();
+		}
+		return new AuctionStats(sold, revenue, uncollected);
+	}
+
+	/**
+	 * How much the shards' locks have been used, each lock added up over all shards.
+	 * @return The usage of each lock
+	 */
+	@Override
+	public List<LockUsage> lockUsage()
+	{
+		List<LockUsage> usage = new ArrayList<LockUsage>();
+		List<List<LockUsage>> perShard = new ArrayList<List<LockUsage>>();
+		for (AuctionServer shard : shards)
+			perShard.add(shard.lockUsage());
+		for (int lock = 0; lock < perShard.get(0).size(); lock++) {
+			LockUsage[] parts = new LockUsage[shards.length];
+			for (int i = 0; i < shards.length; i++)
+				parts[i] = perShard.get(i).get(lock);
+			usage.add(LockUsage.combine(parts[0].getName(), parts));
+		}
+		return usage;
+	}
+
+	@Override
+	public void shutdown()
+	{
+		for (AuctionServer shard : shards)
+			shard.shutdown();
+		super.shutdown();
+	}
+
+	/**
+	 * Recovers each shard from a journal of its own, <code>file.0</code>,
+	 * <code>file.1</code>..., and keeps journaling to it, as
+	 * <code>AuctionServer.openJournal</code> does.  The first shard's journal
+	 * also holds the participants, so that shard is recovered first.
+	 * @param file Prefix of the shards' journal files
+	 * @param checkpointIntervalMs Time between background checkpoints of each shard, or 0 for none
+	 * @throws IOException If a journal cannot be read or opened
+	 * @throws IllegalStateException If the server has already been used or journaled
+	 */
+	@Override
+	public void openJournal(File file, long checkpointIntervalMs) throws IOException
+	{
+		if (journaled || submitted.get() != 0 || participants.exists(0))
+			throw new IllegalStateException("Journal must be opened on an unused server");
+		journaled = true;
+
+		for (int i = 0; i < shards.length; i++) {
+			shards[i].recover(new File(file.getPath() + "." + i), checkpointIntervalMs, i == 0);
+			for (Item item : shards[i].getItemSnapshot().items())
+				sellerShards.computeIfAbsent(participants.id(item.seller()), id -> ConcurrentHashMap.newKeySet()).add(i);
+		}
+	}
+
+	/**
+	 * Checkpoints each shard in turn.
+	 * @throws IOException If a shard's checkpoint fails; the shards after it are not checkpointed
+	 */
+	@Override
+	public void checkpoint() throws IOException
+	{
+		for (AuctionServer shard : shards)
+			shard.checkpoint();
+	}
+}
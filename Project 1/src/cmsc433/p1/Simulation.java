@@ -1,5 +1,9 @@
 package cmsc433.p1;
 
+import java.util.Random;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
 
 /**
  * Class provided for ease of test. This will not be used in the project 
@@ -7,10 +11,26 @@ package cmsc433.p1;
  */ 
 public class Simulation
 {
+    /**
+     * Usage: <code>Simulation [sellers] [bidders] [platform|virtual]</code>.
+     * Defaults to 50 sellers and 20 bidders on platform threads.  Virtual
+     * threads, where the JDK has them, allow hundreds of thousands of clients.
+     */
     public static void main(String[] args)
     {                
-        int nrSellers = 50;
-        int nrBidders = 20;
+        int nrSellers = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+        int nrBidders = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        boolean virtual = args.length > 2 && args[2].equals("virtual");
+        
+        ThreadFactory threads = virtual ? ClientThreads.virtual() : null;
+        if (virtual && threads == null)
+        {
+            System.out.println("Virtual threads are not available, using platform threads");
+        }
+        if (threads == null)
+        {
+            threads = ClientThreads.platform();
+        }
         
         Thread[] sellerThreads = new Thread[nrSellers];
         Thread[] bidderThreads = new Thread[nrBidders];
@@ -25,7 +45,7 @@ public class Simulation
             		"Seller"+i, 
             		100, 50, i
             );
-            sellerThreads[i] = new Thread(sellers[i]);
+            sellerThreads[i] = threads.newThread(sellers[i]);
             sellerThreads[i].start();
         }
         
@@ -37,7 +57,7 @@ public class Simulation
             		"Buyer"+i, 
             		100, 20, 150, i
             );
-            bidderThreads[i] = new Thread(bidders[i]);
+            bidderThreads[i] = threads.newThread(bidders[i]);
             bidderThreads[i].start();
         }
         
@@ -69,5 +89,89 @@ public class Simulation
         
         // TODO: Add code as needed to debug
         
+        // Compare bid throughput with one shared listing lock, striped listing locks, the lock-free engine, shards and the sequencer
+        int probeThreads = 4 * Runtime.getRuntime().availableProcessors();
+        System.out.println("Bid throughput with " + probeThreads + " threads:");
+        System.out.println("  global listing lock:  "
+                + bidThroughput(new AuctionServer(1), probeThreads, 1000));
+        System.out.println("  striped listing locks: "
+                + bidThroughput(new AuctionServer(AuctionServer.defaultLockStripes), probeThreads, 1000));
+        System.out.println("  lock-free bid engine:  "
+                + bidThroughput(new AuctionServer(AuctionServer.defaultLockStripes, BidEngine.LOCK_FREE), probeThreads, 1000));
+        System.out.println("  4 shards:              "
+                + bidThroughput(new ShardedAuctionServer(4, AuctionServer.defaultLockStripes / 4, BidEngine.SYNCHRONIZED), probeThreads, 1000));
+        System.out.println("  single-writer sequencer: "
+                + bidThroughput(new SequencedAuctionServer(1024, BidEngine.SYNCHRONIZED), probeThreads, 1000));
+    }
+    
+    /**
+     * Fills a fresh server to capacity with long running listings and lets the
+     * given number of threads price, bid on and check random listings for the
+     * given duration.  Each thread takes turns among enough bidders that they
+     * cannot all be at <code>maxBidCount</code> leading bids, so the probe
+     * keeps placing bids instead of timing rejections.
+     * @return Server calls completed per second and bids placed per second
+     */
+    private static String bidThroughput(final AuctionServer server, int nrThreads, final int durationMs)
+    {
+        final int biddersPerThread = AuctionServer.serverCapacity / AuctionServer.maxBidCount + 1;
+
+        final int[] listingIDs = new int[AuctionServer.serverCapacity];
+        for (int i = 0; i < AuctionServer.serverCapacity; ++i)
+        {
+            listingIDs[i] = server.submitItem("ProbeSeller" + (i / AuctionServer.maxSellerItems), "Probe#" + i, 0, 60000);
+        }
+        
+        final AtomicLong operations = new AtomicLong();
+        final AtomicLong placed = new AtomicLong();
+        final long deadline = System.currentTimeMillis() + durationMs;
+        Thread[] threads = new Thread[nrThreads];
+        for (int t = 0; t < nrThreads; ++t)
+        {
+            final String[] names = new String[biddersPerThread];
+            for (int b = 0; b < biddersPerThread; ++b)
+            {
+                names[b] = "Probe" + t + "-" + b;
+            }
+            final Random rand = new Random(t);
+            threads[t] = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    long ops = 0, bids = 0;
+                    for (int i = 0; System.currentTimeMillis() < deadline; ++i)
+                    {
+                        String name = names[i % names.length];
+                        int listingID = listingIDs[rand.nextInt(listingIDs.length)];
+                        int price = server.itemPrice(listingID);
+                        if (server.submitBid(name, listingID, price + 1))
+                        {
+                            ++bids;
+                        }
+                        server.checkBidStatus(name, listingID);
+                        ops += 3;
+                    }
+                    operations.addAndGet(ops);
+                    placed.addAndGet(bids);
+                }
+            });
+            threads[t].start();
+        }
+        
+        for (Thread thread : threads)
+        {
+            try
+            {
+                thread.join();
+            }
+            catch (InterruptedException e)
+            {
+                e.printStackTrace();
+            }
+        }
+        
+        server.shutdown();
+        return operations.get() * 1000 / durationMs + " ops/s, " + placed.get() * 1000 / durationMs + " bids placed/s";
     }
 }
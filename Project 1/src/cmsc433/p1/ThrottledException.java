@@ -0,0 +1,13 @@
+package cmsc433.p1;
+
+/*
+ * An exception that is thrown by an AdmissionControlledAuctionServer when a call is turned away because the caller
+ * is calling too often or too many calls are already in progress.  Nothing was done; the call can be made again later.
+ */
+public class ThrottledException extends RuntimeException {
+	private static final long serialVersionUID = 1L;
+
+	public ThrottledException (String message) {
+		super(message);
+	}
+}